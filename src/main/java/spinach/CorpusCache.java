@@ -0,0 +1,299 @@
+package spinach;
+
+import spinach.sentence.SemanticFrameSet;
+import spinach.sentence.Token;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A compact binary file format for parsed corpora, which is memory-mapped and read in bulk when loaded,
+ * so that a corpus only has to be parsed from text once.
+ * <p/>
+ * A cache file holds, in order: a header, which records the length, modification time and CRC-32 checksum
+ * of the corpus it was made from, when the checksum was taken, and where the symbol table starts; the
+ * sentences, as ints; and the symbol table, holding each distinct string of the corpus once as UTF-8.
+ * Each sentence holds arrays of the form, lemma, part of speech and relation symbols of its tokens and of
+ * the indices of their heads, followed by the indices of its predicates and a table of its arguments, each
+ * as a predicate number, a token index and a label symbol. Symbols come last so that sentences can be
+ * written as they are encoded, and everything is big-endian.
+ * <p/>
+ * A cache is only read if the corpus file still has the recorded length and modification time, so that
+ * it's made again whenever the corpus changes. The checksum is only compared when the corpus was modified
+ * so shortly before it was taken that a later change could have kept the same modification time.
+ *
+ * @author Calvin Huang
+ */
+class CorpusCache {
+
+    private static final int MAGIC = 0x53504E43;   //"SPNC"
+    private static final int VERSION = 1;
+    private static final int SYMBOLS_POSITION = 4 + 4 + 8 + 8 + 8 + 8;
+    private static final int HEADER_SIZE = SYMBOLS_POSITION + 8;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int WINDOW_SIZE = 1 << 30;
+    private static final long TIMESTAMP_GRANULARITY = 2000;     //in milliseconds, the coarsest being FAT's
+
+    private CorpusCache() {
+    }
+
+    /**
+     * Reads the sentences of a corpus from its cache, if the cache was made from the corpus as it is now.
+     *
+     * @param cacheLoc  cache file location
+     * @param corpusLoc text corpus file location
+     * @return list of semantic framesets, one for each sentence in the corpus, or null if there is no cache
+     * for the corpus as it is now
+     * @throws IOException if failed to read either file
+     */
+    static List<SemanticFrameSet> read(String cacheLoc, String corpusLoc) throws IOException {
+        File cacheFile = new File(cacheLoc);
+        if (!cacheFile.isFile() || cacheFile.length() < HEADER_SIZE)
+            return null;
+
+        RandomAccessFile file = new RandomAccessFile(cacheFile, "r");
+        try {
+            if (file.readInt() != MAGIC || file.readInt() != VERSION)
+                return null;
+
+            File corpusFile = new File(corpusLoc);
+            long length = file.readLong();
+            long modified = file.readLong();
+            long checksum = file.readLong();
+            long checkedAt = file.readLong();
+            long symbolsStart = file.readLong();
+            if (length != corpusFile.length() || modified != corpusFile.lastModified() ||
+                    symbolsStart < HEADER_SIZE || symbolsStart > file.length())
+                return null;
+            if (checkedAt - modified < TIMESTAMP_GRANULARITY && checksum != checksumOf(corpusFile))
+                return null;
+
+            FileChannel channel = file.getChannel();
+            DataInputStream symbolData = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel.position(symbolsStart))));
+            String[] symbols = new String[symbolData.readInt()];
+            byte[] bytes = new byte[64];
+            for (int i = 0; i < symbols.length; i++) {
+                int size = symbolData.readInt();
+                if (size > bytes.length)
+                    bytes = new byte[Math.max(size, 2 * bytes.length)];
+                symbolData.readFully(bytes, 0, size);
+                symbols[i] = new String(bytes, 0, size, UTF8);
+            }
+
+            return readSentences(new MappedInts(channel, HEADER_SIZE, symbolsStart), symbols);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static List<SemanticFrameSet> readSentences(MappedInts ints, String[] symbols) throws IOException {
+        int numSentences = ints.get();
+        List<SemanticFrameSet> sentences = new ArrayList<SemanticFrameSet>(numSentences);
+
+        int[] forms = new int[0], lemmas = forms, poses = forms, relations = forms, heads = forms;
+        for (int s = 0; s < numSentences; s++) {
+            int numTokens = ints.get();
+            if (numTokens > forms.length) {
+                int capacity = Math.max(numTokens, 2 * forms.length);
+                forms = new int[capacity];
+                lemmas = new int[capacity];
+                poses = new int[capacity];
+                relations = new int[capacity];
+                heads = new int[capacity];
+            }
+            ints.get(forms, 0, numTokens);
+            ints.get(lemmas, 0, numTokens);
+            ints.get(poses, 0, numTokens);
+            ints.get(relations, 0, numTokens);
+            ints.get(heads, 0, numTokens);
+
+            SemanticFrameSet sentence = new SemanticFrameSet();
+            for (int i = 0; i < numTokens; i++)
+                sentence.addToken(new Token(symbols[forms[i]], symbols[lemmas[i]], symbols[poses[i]],
+                        symbols[relations[i]], heads[i], i));
+
+            for (int numPredicates = ints.get(), p = 0; p < numPredicates; p++)
+                sentence.addPredicate(sentence.tokenAt(ints.get()));
+
+            List<Token> predicates = sentence.getPredicateList();
+            for (int numArgs = ints.get(), a = 0; a < numArgs; a++) {
+                Token predicate = predicates.get(ints.get());
+                Token argument = sentence.tokenAt(ints.get());
+                sentence.addArgument(predicate, argument, symbols[ints.get()]);
+            }
+
+            sentences.add(sentence);
+        }
+        return sentences;
+    }
+
+    /**
+     * Writes the sentences of a corpus to a cache file, recording the corpus file as it is now.
+     * The file is written under a temporary name and then renamed, so that a cache is never left half-written.
+     *
+     * @param sentences sentences of the corpus
+     * @param cacheLoc  cache file location
+     * @param corpusLoc text corpus file location
+     * @throws IOException if failed to read the corpus file or to write the cache
+     */
+    static void write(List<SemanticFrameSet> sentences, String cacheLoc, String corpusLoc) throws IOException {
+        File corpusFile = new File(corpusLoc);
+        long length = corpusFile.length();
+        long modified = corpusFile.lastModified();
+        long checkedAt = System.currentTimeMillis();
+        long checksum = checksumOf(corpusFile);
+
+        File cacheFile = new File(cacheLoc);
+        File temporary = new File(cacheLoc + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temporary);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(length);
+            out.writeLong(modified);
+            out.writeLong(checksum);
+            out.writeLong(checkedAt);
+            out.writeLong(0);       //symbol table position, filled in once the sentences are written
+
+            SymbolTable symbols = new SymbolTable();
+            out.writeInt(sentences.size());
+            for (SemanticFrameSet sentence : sentences)
+                writeSentence(sentence, symbols, out);
+            out.flush();
+            long symbolsStart = stream.getChannel().position();
+
+            out.writeInt(symbols.size());
+            for (int i = 0; i < symbols.size(); i++) {
+                byte[] bytes = symbols.symbolAt(i).getBytes(UTF8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.flush();
+
+            ByteBuffer position = ByteBuffer.allocate(8);
+            position.putLong(symbolsStart).flip();
+            stream.getChannel().write(position, SYMBOLS_POSITION);
+        } finally {
+            out.close();
+        }
+
+        if (!temporary.renameTo(cacheFile) && !(cacheFile.delete() && temporary.renameTo(cacheFile)))
+            throw new IOException("Failed to replace corpus cache " + cacheFile);
+    }
+
+    /*
+    Tokens are written in order of their index, and predicates in the order of the predicate list.
+    Arguments are written in the order the corpus reader adds them, by token and then by predicate,
+    so that reading them back builds the same sentence.
+     */
+    private static void writeSentence(SemanticFrameSet sentence, SymbolTable symbols, DataOutputStream out)
+            throws IOException {
+        int numTokens = sentence.size();
+        out.writeInt(numTokens);
+        for (int i = 0; i < numTokens; i++)
+            out.writeInt(symbols.idOf(sentence.tokenAt(i).form));
+        for (int i = 0; i < numTokens; i++)
+            out.writeInt(symbols.idOf(sentence.tokenAt(i).lemma));
+        for (int i = 0; i < numTokens; i++)
+            out.writeInt(symbols.idOf(sentence.tokenAt(i).pos));
+        for (int i = 0; i < numTokens; i++)
+            out.writeInt(symbols.idOf(sentence.tokenAt(i).syntacticHeadRelation));
+        for (int i = 0; i < numTokens; i++)
+            out.writeInt(sentence.tokenAt(i).headSentenceIndex);
+
+        List<Token> predicates = sentence.getPredicateList();
+        out.writeInt(predicates.size());
+        for (Token predicate : predicates)
+            out.writeInt(predicate.sentenceIndex);
+
+        List<Map<Token, String>> arguments = new ArrayList<Map<Token, String>>(predicates.size());
+        int numArgs = 0;
+        for (Token predicate : predicates) {
+            arguments.add(sentence.argumentsOf(predicate));
+            numArgs += arguments.get(arguments.size() - 1).size();
+        }
+        out.writeInt(numArgs);
+        for (int i = 0; i < numTokens; i++) {
+            Token token = sentence.tokenAt(i);
+            for (int p = 0; p < predicates.size(); p++) {
+                String label = arguments.get(p).get(token);
+                if (label != null) {
+                    out.writeInt(p);
+                    out.writeInt(i);
+                    out.writeInt(symbols.idOf(label));
+                }
+            }
+        }
+    }
+
+    private static long checksumOf(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            CRC32 crc = new CRC32();
+            for (long position = 0, size = channel.size(); position < size; position += WINDOW_SIZE) {
+                ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(WINDOW_SIZE, size - position));
+                crc.update(window);
+            }
+            return crc.getValue();
+        } finally {
+            in.close();
+        }
+    }
+
+    /*
+    Ints of a section of a file, mapped a window at a time, so that sections over 2GB can be read.
+    The section starts on a multiple of 4 bytes, and windows are a multiple of 4 bytes long, so no
+    int straddles two windows.
+     */
+    private static class MappedInts {
+
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+        private IntBuffer window = IntBuffer.allocate(0);
+
+        MappedInts(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        int get() throws IOException {
+            if (!window.hasRemaining())
+                nextWindow();
+            return window.get();
+        }
+
+        void get(int[] dst, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (!window.hasRemaining())
+                    nextWindow();
+                int n = Math.min(length, window.remaining());
+                window.get(dst, offset, n);
+                offset += n;
+                length -= n;
+            }
+        }
+
+        private void nextWindow() throws IOException {
+            long size = Math.min(WINDOW_SIZE, end - position) & ~3L;
+            if (size == 0)
+                throw new EOFException("Corpus cache is truncated");
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, size).asIntBuffer();
+            position += size;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package spinach;
+
+import java.io.IOException;
+
+/**
+ * The columns of a token's line in a syntactically annotated text corpus that are needed to build
+ * a sentence. A line is scanned by hand, rather than split with a regular expression: the index and
+ * head columns are parsed straight to ints, only the form, lemma, part of speech, relation and
+ * argument label columns are copied out as strings, and the other columns are skipped over.
+ * Columns are separated by runs of whitespace, as for String.split("\\s+").
+ *
+ * @author Calvin Huang
+ */
+class CorpusLine {
+
+    private static final int[] NO_PREDICATES = new int[0];
+    private static final String[] NO_LABELS = new String[0];
+
+    int index;
+    String form;
+    String lemma;
+    String pos;
+    int parentIndex;
+    String relation;
+    boolean isPredicate;
+
+    //the ith argument of this token is of the predicate numbered argPredicates[i], with label argLabels[i]
+    int numArgs;
+    int[] argPredicates = NO_PREDICATES;
+    String[] argLabels = NO_LABELS;
+
+    private CorpusLine() {
+    }
+
+    /**
+     * Scans a line of a corpus.
+     *
+     * @param line      line of a token, with at least the columns up to the predicate column
+     * @param corpusLoc name of the corpus, for error messages
+     * @return columns of the line
+     * @throws IOException if the line is missing columns, or its index or head isn't a number
+     */
+    static CorpusLine scan(String line, String corpusLoc) throws IOException {
+        CorpusLine columns = new CorpusLine();
+        int length = line.length();
+        int column = 0;
+        int end = 0;
+
+        while (true) {
+            int start = end;
+            while (start < length && isWhitespace(line.charAt(start)))
+                start++;
+            if (start == length)
+                break;
+            end = start + 1;
+            while (end < length && !isWhitespace(line.charAt(end)))
+                end++;
+
+            switch (column) {
+                case CorpusUtils.INDEX_COLUMN:
+                    columns.index = parseInt(line, start, end, corpusLoc);
+                    break;
+                case CorpusUtils.FORM_COLUMN:
+                    columns.form = line.substring(start, end);
+                    break;
+                case CorpusUtils.LEMMA_COLUMN:
+                    columns.lemma = line.substring(start, end);
+                    break;
+                case CorpusUtils.POS_COLUMN:
+                    columns.pos = line.substring(start, end);
+                    break;
+                case CorpusUtils.PARENT_INDEX_COLUMN:
+                    columns.parentIndex = parseInt(line, start, end, corpusLoc);
+                    break;
+                case CorpusUtils.SEMANTIC_RELATION_COLUMN:
+                    columns.relation = line.substring(start, end);
+                    break;
+                case CorpusUtils.PREDICATE_COLUMN:
+                    columns.isPredicate = !isBlank(line, start, end);
+                    break;
+                default:
+                    if (column >= CorpusUtils.ARGS_START_COLUMN && !isBlank(line, start, end))
+                        columns.addArgument(column - CorpusUtils.ARGS_START_COLUMN, line.substring(start, end));
+            }
+            column++;
+        }
+
+        if (column <= CorpusUtils.PREDICATE_COLUMN)
+            throw new IOException("Missing columns in corpus " + corpusLoc + ": " + line);
+        return columns;
+    }
+
+    private void addArgument(int predicateNum, String label) {
+        if (numArgs == argLabels.length) {
+            int capacity = Math.max(2, 2 * numArgs);
+            int[] predicates = new int[capacity];
+            String[] labels = new String[capacity];
+            System.arraycopy(argPredicates, 0, predicates, 0, numArgs);
+            System.arraycopy(argLabels, 0, labels, 0, numArgs);
+            argPredicates = predicates;
+            argLabels = labels;
+        }
+        argPredicates[numArgs] = predicateNum;
+        argLabels[numArgs] = label;
+        numArgs++;
+    }
+
+    /*
+    The whitespace characters matched by \s in a regular expression.
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isBlank(String line, int start, int end) {
+        return end - start == 1 && line.charAt(start) == '_';
+    }
+
+    private static int parseInt(String line, int start, int end, String corpusLoc) throws IOException {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = line.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || i - start >= 9)
+                throw new IOException("Bad number in corpus " + corpusLoc + ": " + line.substring(start, end));
+            value = 10 * value + digit;
+        }
+        return value;
+    }
+}
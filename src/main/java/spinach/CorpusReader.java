@@ -0,0 +1,161 @@
+package spinach;
+
+import spinach.sentence.SemanticFrameSet;
+import spinach.sentence.Token;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a syntactically annotated text corpus one sentence at a time, so that only the sentence
+ * being read is held in memory. Sentences are separated by blank lines, with one line per token,
+ * laid out in the columns given in CorpusUtils, which are scanned by CorpusLine.
+ * The strings of the tokens read are interned in a symbol table belonging to the reader,
+ * so that sentences read by one reader share one instance of each string.
+ * <p/>
+ * The file is closed once the last sentence has been read, or by close() if reading stops earlier.
+ * Errors reading the file during iteration are thrown as RuntimeExceptions, as Iterator doesn't allow
+ * checked exceptions.
+ *
+ * @author Calvin Huang
+ */
+public class CorpusReader implements Iterator<SemanticFrameSet>, Closeable {
+
+    private final BufferedReader reader;
+    private final String corpusLoc;
+    private final SymbolTable symbols;
+    private final List<CorpusLine> sentenceTokenData = new ArrayList<CorpusLine>();
+
+    private SemanticFrameSet next;
+    private boolean closed;
+
+    /**
+     * Opens a corpus file for reading.
+     *
+     * @param corpusLoc text corpus file location
+     * @throws IOException if the file can't be opened
+     */
+    public CorpusReader(String corpusLoc) throws IOException {
+        this(new InputStreamReader(new FileInputStream(corpusLoc)), corpusLoc);
+    }
+
+    /**
+     * Reads a corpus from a reader, which is closed along with this corpus reader.
+     *
+     * @param reader    reader of the corpus text
+     * @param corpusLoc name of the corpus, for error messages
+     */
+    public CorpusReader(Reader reader, String corpusLoc) {
+        this(reader, corpusLoc, new SymbolTable());
+    }
+
+    /**
+     * Reads a corpus from a reader, interning strings in a symbol table that may be shared with other readers.
+     *
+     * @param reader    reader of the corpus text
+     * @param corpusLoc name of the corpus, for error messages
+     * @param symbols   table to intern the strings of tokens in
+     */
+    CorpusReader(Reader reader, String corpusLoc, SymbolTable symbols) {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        this.corpusLoc = corpusLoc;
+        this.symbols = symbols;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !closed) {
+            try {
+                next = readSentence();
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read corpus " + corpusLoc, e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public SemanticFrameSet next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        SemanticFrameSet sentence = next;
+        next = null;
+        return sentence;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            reader.close();
+        }
+    }
+
+    /*
+    Reads lines up to the end of the next sentence, and returns that sentence, or null if there are
+    no more sentences, in which case the file is closed. A last sentence not followed by a blank line
+    is still returned.
+     */
+    private SemanticFrameSet readSentence() throws IOException {
+        String strLine;
+        while ((strLine = reader.readLine()) != null) {
+            if (strLine.equals("")) {    //sentence is over
+                SemanticFrameSet goldFrames = frameSetOf(sentenceTokenData);
+                sentenceTokenData.clear();
+                return goldFrames;
+            } else {   //is token in same sentence
+                sentenceTokenData.add(CorpusLine.scan(strLine, corpusLoc));
+            }
+        }
+
+        close();
+        if (sentenceTokenData.isEmpty())
+            return null;
+        SemanticFrameSet goldFrames = frameSetOf(sentenceTokenData);
+        sentenceTokenData.clear();
+        return goldFrames;
+    }
+
+    /*
+    Builds a sentence from the columns of each of its tokens.
+     */
+    private SemanticFrameSet frameSetOf(List<CorpusLine> sentenceTokenData) {
+        SemanticFrameSet goldFrames = new SemanticFrameSet();
+
+        for (CorpusLine tokenData : sentenceTokenData) {   //add tokens into sentence; predicates into frames
+            Token token = new Token(
+                    symbols.intern(tokenData.form),
+                    symbols.intern(tokenData.lemma),
+                    symbols.intern(tokenData.pos),
+                    symbols.intern(tokenData.relation),
+                    tokenData.parentIndex - 1,
+                    tokenData.index - 1
+            );      //subtract 1 from indices because corpus is 1-based, but code uses 0-base
+
+            goldFrames.addToken(token);
+
+            if (tokenData.isPredicate)
+                goldFrames.addPredicate(token);
+        }
+
+        List<Token> predicates = goldFrames.getPredicateList();
+
+        for (CorpusLine tokenData : sentenceTokenData) {    //link arguments to predicates
+            Token thisToken = goldFrames.tokenAt(tokenData.index - 1);
+            for (int i = 0; i < tokenData.numArgs; i++)
+                goldFrames.addArgument(predicates.get(tokenData.argPredicates[i]),
+                        thisToken,
+                        symbols.intern(tokenData.argLabels[i]));
+        }
+
+        return goldFrames;
+    }
+}
@@ -1,13 +1,12 @@
 package spinach;
 
 import spinach.sentence.SemanticFrameSet;
-import spinach.sentence.Token;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -38,55 +37,82 @@ public class CorpusUtils {
         List<SemanticFrameSet> sentences =
                 new ArrayList<SemanticFrameSet>();
 
-        String strLine;
-        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(corpusLoc)));
-
-        ArrayList<String[]> sentenceTokenData = new ArrayList<String[]>();
-
-        while ((strLine = br.readLine()) != null) {
-            if (strLine.equals("")) {    //sentence is over, enter sentence data into set
-
-                SemanticFrameSet goldFrames = new SemanticFrameSet();
-
-                for (String[] tokenData : sentenceTokenData) {   //add tokens into sentence; predicates into frames
-                    Token token = new Token(
-                            tokenData[FORM_COLUMN],
-                            tokenData[LEMMA_COLUMN],
-                            tokenData[POS_COLUMN],
-                            tokenData[SEMANTIC_RELATION_COLUMN],
-                            Integer.parseInt(tokenData[PARENT_INDEX_COLUMN]) - 1,
-                            Integer.parseInt(tokenData[INDEX_COLUMN]) - 1
-                    );      //subtract 1 from indices because corpus is 1-based, but code uses 0-base
-
-                    goldFrames.addToken(token);
-
-                    if (!tokenData[PREDICATE_COLUMN].equals("_"))   //is a predicate
-                        goldFrames.addPredicate(token);
-                }
+        CorpusReader reader = new CorpusReader(corpusLoc);
+        try {
+            while (reader.hasNext())
+                sentences.add(reader.next());
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw e;
+        } finally {
+            reader.close();
+        }
 
-                List<Token> predicates = goldFrames.getPredicateList();
+        return sentences;
 
-                for (String[] tokenData : sentenceTokenData) {    //link arguments to predicates
-                    Token thisToken = goldFrames.tokenAt(Integer.parseInt(tokenData[INDEX_COLUMN]) - 1);
-                    for (int i = ARGS_START_COLUMN; i < tokenData.length; i++)
-                        if (!tokenData[i].equals("_")) {
-                            int predicateNum = i - ARGS_START_COLUMN;
-                            goldFrames.addArgument(predicates.get(predicateNum),
-                                    thisToken,
-                                    tokenData[i]);
-                        }
-                }
+    }
 
-                sentences.add(goldFrames);
+    /**
+     * Given the location of a syntactically annotated text corpus, returns a list of semantic frames,
+     * parsing parts of the corpus on several threads at once. The result is the same as that of
+     * parseCorpus(String).
+     *
+     * @param corpusLoc  text corpus file location
+     * @param numThreads number of threads to parse with
+     * @return list of semantic framesets, one for each sentence in the corpus
+     * @throws java.io.IOException if file is missing or is improperly formatted
+     */
+    public static List<SemanticFrameSet> parseCorpus(String corpusLoc, int numThreads) throws IOException {
+        if (numThreads < 1)
+            throw new IllegalArgumentException("Number of threads must be positive");
+        return ParallelCorpusParser.parse(corpusLoc, numThreads);
+    }
 
-                sentenceTokenData.clear();
-            } else {   //is token in same sentence
-                sentenceTokenData.add(strLine.split("\\s+"));
-            }
+    /**
+     * Given the location of a syntactically annotated text corpus, returns a list of semantic frames,
+     * reading them from a binary cache of the parsed corpus when there is one for the corpus as it is now.
+     * Otherwise, the corpus is parsed and the cache is written, to be read instead the next time. A cache
+     * is made again whenever the length, modification time or checksum of the corpus file changes.
+     *
+     * @param corpusLoc text corpus file location
+     * @param cacheLoc  location of the cache file
+     * @return list of semantic framesets, one for each sentence in the corpus
+     * @throws java.io.IOException if file is missing or is improperly formatted, or the cache couldn't be written
+     */
+    public static List<SemanticFrameSet> loadCorpus(String corpusLoc, String cacheLoc) throws IOException {
+        List<SemanticFrameSet> sentences = CorpusCache.read(cacheLoc, corpusLoc);
+        if (sentences == null) {
+            sentences = parseCorpus(corpusLoc);
+            CorpusCache.write(sentences, cacheLoc, corpusLoc);
         }
-
         return sentences;
+    }
 
+    /**
+     * Given the location of a syntactically annotated text corpus, returns its semantic frames
+     * without reading the whole corpus into memory. Each iteration reads the file again, one
+     * sentence at a time, and closes it once the last sentence has been read; to stop an iteration
+     * early, use a CorpusReader directly and close it.
+     *
+     * @param corpusLoc text corpus file location
+     * @return semantic framesets, one for each sentence in the corpus
+     * @throws java.io.IOException if file is missing
+     */
+    public static Iterable<SemanticFrameSet> streamCorpus(final String corpusLoc) throws IOException {
+        if (!new File(corpusLoc).isFile())
+            throw new FileNotFoundException(corpusLoc);
+
+        return new Iterable<SemanticFrameSet>() {
+            @Override
+            public Iterator<SemanticFrameSet> iterator() {
+                try {
+                    return new CorpusReader(corpusLoc);
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to open corpus " + corpusLoc, e);
+                }
+            }
+        };
     }
 
 }
@@ -0,0 +1,185 @@
+package spinach;
+
+import spinach.sentence.SemanticFrameSet;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parses a syntactically annotated text corpus on several threads. The file is split into chunks
+ * just after blank lines, so that no sentence is split, and each chunk is memory-mapped, decoded
+ * and parsed by a CorpusReader on a fork-join pool. The sentences of the chunks are then joined
+ * in their original order, so the result is the same as that of CorpusUtils.parseCorpus().
+ * The readers of all chunks intern strings in one symbol table.
+ * <p/>
+ * The corpus must be in the platform's default encoding, as for CorpusUtils.parseCorpus(),
+ * and that encoding must be ASCII-compatible, such as UTF-8, so that line breaks can be found in the raw bytes.
+ *
+ * @author Calvin Huang
+ */
+class ParallelCorpusParser {
+
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final long MIN_CHUNK_SIZE = 1 << 20;
+    private static final long MAX_CHUNK_SIZE = 1 << 28;
+    private static final int SCAN_WINDOW_SIZE = 1 << 16;
+
+    private final String corpusLoc;
+    private final FileChannel channel;
+    private final Charset charset = Charset.defaultCharset();
+    private final SymbolTable symbols = new SymbolTable();
+
+    //chunk i is the bytes from boundaries[i] up to boundaries[i + 1]
+    private long[] boundaries;
+
+    private ParallelCorpusParser(String corpusLoc, FileChannel channel) {
+        this.corpusLoc = corpusLoc;
+        this.channel = channel;
+    }
+
+    /**
+     * Parses a corpus file into semantic framesets.
+     *
+     * @param corpusLoc  text corpus file location
+     * @param numThreads number of threads to parse with
+     * @return list of semantic framesets, one for each sentence in the corpus, in order
+     * @throws IOException if file is missing or is improperly formatted
+     */
+    static List<SemanticFrameSet> parse(String corpusLoc, int numThreads) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(corpusLoc, "r");
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            ParallelCorpusParser parser = new ParallelCorpusParser(corpusLoc, file.getChannel());
+            parser.findBoundaries(numThreads);
+            return pool.invoke(parser.new ChunkTask(0, parser.boundaries.length - 1));
+        } catch (RuntimeException e) {
+            //exceptions from other threads may be rethrown wrapped in another exception of the same type
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause())
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+            throw e;
+        } finally {
+            pool.shutdown();
+            file.close();
+        }
+    }
+
+    /*
+    Splits the file into chunks of about the same size, each starting just after a blank line.
+     */
+    private void findBoundaries(int numThreads) throws IOException {
+        long size = channel.size();
+        long chunkSize = Math.min(Math.max(size / (numThreads * CHUNKS_PER_THREAD), MIN_CHUNK_SIZE), MAX_CHUNK_SIZE);
+
+        List<Long> starts = new ArrayList<Long>();
+        starts.add(0L);
+        long boundary = 0;
+        while ((boundary = nextBoundary(boundary + chunkSize, size)) < size)
+            starts.add(boundary);
+        starts.add(size);
+
+        boundaries = new long[starts.size()];
+        for (int i = 0; i < boundaries.length; i++)
+            boundaries[i] = starts.get(i);
+    }
+
+    /*
+    Returns the first position at or after some position that follows a blank line ("\n" or "\r\n"),
+    or the size of the file if there is none. Lines are counted from the first line break at or after
+    the position, so a blank line that starts exactly at the position is passed over.
+     */
+    private long nextBoundary(long from, long size) throws IOException {
+        ByteBuffer window = ByteBuffer.allocate(SCAN_WINDOW_SIZE);
+        boolean atLineStart = false;
+        boolean afterCarriageReturn = false;
+
+        for (long position = from; position < size; ) {
+            window.clear();
+            int read = channel.read(window, position);
+            if (read <= 0)
+                break;
+
+            for (int i = 0; i < read; i++) {
+                byte b = window.get(i);
+                if (b == '\n') {
+                    if (atLineStart || afterCarriageReturn)
+                        return position + i + 1;
+                    atLineStart = true;
+                } else if (b == '\r' && atLineStart) {
+                    atLineStart = false;
+                    afterCarriageReturn = true;
+                    continue;
+                } else {
+                    atLineStart = false;
+                }
+                afterCarriageReturn = false;
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /*
+    Parses the sentences of a chunk.
+     */
+    private List<SemanticFrameSet> parseChunk(int chunk) throws IOException {
+        long start = boundaries[chunk];
+        CharBuffer text = charset.decode(channel.map(FileChannel.MapMode.READ_ONLY, start,
+                boundaries[chunk + 1] - start));
+
+        List<SemanticFrameSet> sentences = new ArrayList<SemanticFrameSet>();
+        CorpusReader reader = new CorpusReader(
+                new CharArrayReader(text.array(), text.arrayOffset() + text.position(), text.remaining()),
+                corpusLoc, symbols);
+        while (reader.hasNext())
+            sentences.add(reader.next());
+        reader.close();
+        return sentences;
+    }
+
+    /*
+    Parses the chunks from one index up to another, splitting the range in two while it holds
+    more than one chunk, and returns their sentences in order.
+     */
+    private class ChunkTask extends RecursiveTask<List<SemanticFrameSet>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        ChunkTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<SemanticFrameSet> compute() {
+            if (to - from == 1) {
+                try {
+                    return parseChunk(from);
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to read corpus " + corpusLoc, e);
+                }
+            }
+
+            int middle = (from + to) >>> 1;
+            ChunkTask first = new ChunkTask(from, middle);
+            first.fork();
+            List<SemanticFrameSet> second = new ChunkTask(middle, to).compute();
+
+            List<SemanticFrameSet> sentences = first.join();
+            sentences.addAll(second);
+            return sentences;
+        }
+    }
+}
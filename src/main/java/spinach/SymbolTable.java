@@ -0,0 +1,87 @@
+package spinach;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A table of the strings read from a corpus, so that equal strings are held as one instance.
+ * Each distinct string is given a dense id, from 0 upwards in the order strings are first seen.
+ * <p/>
+ * A table belongs to whatever is loading a corpus, and is dropped along with it, so strings are never
+ * removed from a table while it's in use. Lookups of strings already in the table take no locks,
+ * so a corpus may be read on several threads at once.
+ *
+ * @author Calvin Huang
+ */
+class SymbolTable {
+
+    private static class Symbol {
+        final String value;
+        final int id;
+
+        Symbol(String value, int id) {
+            this.value = value;
+            this.id = id;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Symbol> symbols = new ConcurrentHashMap<String, Symbol>();
+    private final List<String> values = new ArrayList<String>();     //guarded by this
+
+    /**
+     * Returns the instance of a string held by the table, adding it if it isn't there yet.
+     *
+     * @param s some string, or null
+     * @return string equal to s, the same instance for every equal string, or null if s is null
+     */
+    String intern(String s) {
+        return s == null ? null : symbolOf(s).value;
+    }
+
+    /**
+     * Returns the id of a string, adding it to the table if it isn't there yet.
+     *
+     * @param s some string
+     * @return id of s, the same for every equal string
+     */
+    int idOf(String s) {
+        return symbolOf(s).id;
+    }
+
+    /**
+     * Returns the string with some id.
+     *
+     * @param id id of a string in the table
+     * @return string with that id
+     */
+    synchronized String symbolAt(int id) {
+        return values.get(id);
+    }
+
+    /**
+     * Returns the number of strings in the table, which is one more than the highest id.
+     *
+     * @return number of strings in the table
+     */
+    synchronized int size() {
+        return values.size();
+    }
+
+    private Symbol symbolOf(String s) {
+        Symbol symbol = symbols.get(s);
+        return symbol != null ? symbol : add(s);
+    }
+
+    private synchronized Symbol add(String s) {
+        Symbol symbol = symbols.get(s);
+        if (symbol == null) {
+            //copied so as not to hold on to the rest of a line that s may be a substring of
+            String value = new String(s);
+            symbol = new Symbol(value, values.size());
+            values.add(value);
+            symbols.put(value, symbol);
+        }
+        return symbol;
+    }
+}
@@ -1,13 +1,13 @@
 package spinach.argumentclassifier;
 
-import com.google.common.collect.Sets;
 import edu.stanford.nlp.classify.Dataset;
 import edu.stanford.nlp.ling.BasicDatum;
-import edu.stanford.nlp.ling.Datum;
-import edu.stanford.nlp.stats.Counter;
 import spinach.argumentclassifier.featuregen.ArgumentFeatureGenerator;
 import spinach.argumentclassifier.featuregen.ExtensibleFeatureGenerator;
+import spinach.classifier.BinaryModel;
+import spinach.classifier.FeatureVector;
 import spinach.classifier.PerceptronClassifier;
+import spinach.classifier.ScoreVector;
 import spinach.sentence.SemanticFrameSet;
 import spinach.sentence.Token;
 import spinach.sentence.TokenSentence;
@@ -25,14 +25,16 @@ import java.util.zip.GZIPOutputStream;
  *
  * @author Calvin Huang
  */
-public abstract class ArgumentClassifier implements Serializable {
+public abstract class ArgumentClassifier implements Serializable, Cloneable {
 
     private boolean enableConsistency = true;
     private boolean consistencyWhenTraining;
 
-    protected final PerceptronClassifier classifier;
+    protected PerceptronClassifier classifier;
     private final ArgumentFeatureGenerator featureGenerator;
 
+    private transient volatile boolean[] restrictedLabels;
+
     public final static String NIL_LABEL = "NIL";
 
     private static final long serialVersionUID = 1008397275270930536L;
@@ -105,24 +107,18 @@ public abstract class ArgumentClassifier implements Serializable {
     }
 
     /**
-     * Gives the scores for each argument label, given a sentence, predicate, and argument candidate
+     * Scores each argument label, by label id, given a sentence, predicate, and argument candidate.
+     * Labels already excluded from the score vector stay excluded.
      *
      * @param frameSet    sentence to be analyzed
      * @param possibleArg possible argument of that sentence
      * @param predicate   predicate in that sentence
+     * @param scores      vector to write the scores of the possible labels of that predicate-argument pair to
      * @param training    whether or not you want training weights
-     * @return scores of the possible labels of that predicate-argument pair
      */
-    protected Counter<String> argClassScores(SemanticFrameSet frameSet, Token possibleArg, Token predicate,
-                                             boolean training) {
-        Datum<String, String> d = featureGenerator.datumFrom(frameSet, possibleArg, predicate);
-        return training ? classifier.trainingScores(d) :
-                classifier.scoresOf(d);
-    }
-
-    protected void updateCounterScores(SemanticFrameSet frameSet, Token possibleArg, Token predicate,
-                                       Counter<String> scores, boolean training) {
-        classifier.updateCounterScores(featureGenerator.datumFrom(frameSet, possibleArg, predicate), scores, training);
+    protected void scoreArgument(SemanticFrameSet frameSet, Token possibleArg, Token predicate,
+                                 ScoreVector scores, boolean training) {
+        classifier.scoresOf(featureGenerator.datumFrom(frameSet, possibleArg, predicate), training, scores);
     }
 
     /**
@@ -155,9 +151,9 @@ public abstract class ArgumentClassifier implements Serializable {
     /**
      * Trains on a bunch of SemanticFrameSets.
      *
-     * @param frameSets Collection of framesets to generate a dataset
+     * @param frameSets framesets to generate a dataset
      */
-    public void unstructuredTrain(Collection<SemanticFrameSet> frameSets) {
+    public void unstructuredTrain(Iterable<SemanticFrameSet> frameSets) {
         Dataset<String, String> dataset = new Dataset<String, String>();
         for (SemanticFrameSet frameSet : frameSets)
             dataset.addAll(datasetFrom(frameSet));
@@ -174,61 +170,33 @@ public abstract class ArgumentClassifier implements Serializable {
      * @param goldFrame      known labels for sentence
      */
     public void update(SemanticFrameSet predictedFrame, SemanticFrameSet goldFrame) {
-        Dataset<String, String> dataset = new Dataset<String, String>();
+        FeatureVector features = new FeatureVector();
 
         for (Token predicate : goldFrame.getPredicateList()) {
+            Map<Token, String> goldArguments = goldFrame.argumentsOf(predicate);
+            Map<Token, String> predictedArguments = predictedFrame.isPredicate(predicate) ?
+                    predictedFrame.argumentsOf(predicate) : Collections.<Token, String>emptyMap();
 
-            if (predictedFrame.isPredicate(predicate)) {
-                Map<Token, String> goldArguments = goldFrame.argumentsOf(predicate);
-                Map<Token, String> predictedArguments = predictedFrame.argumentsOf(predicate);
-
-                for (Token t : argumentCandidates(predictedFrame, predicate)) {
-                    String goldLabel = goldArguments.get(t);
-                    String predictedLabel = predictedArguments.get(t);
-
-                    if (goldLabel == null)
-                        goldLabel = NIL_LABEL;
-
-                    if (predictedLabel == null)
-                        predictedLabel = NIL_LABEL;
-
-                    BasicDatum<String, String> datum =
-                            (BasicDatum<String, String>) featureGenerator.datumFrom(predictedFrame, t, predicate);
-
-                    datum.setLabel(PerceptronClassifier.formatManualTrainingLabel(predictedLabel, goldLabel));
-
-                    dataset.add(datum);
-
-                }
+            for (Token t : argumentCandidates(predictedFrame, predicate)) {
+                String goldLabel = goldArguments.get(t);
+                String predictedLabel = predictedArguments.get(t);
 
-            } else {
-                Map<Token, String> goldArguments = goldFrame.argumentsOf(predicate);
+                int gold = classifier.labelIndexOf(goldLabel == null ? NIL_LABEL : goldLabel, true);
+                int predicted = classifier.labelIndexOf(predictedLabel == null ? NIL_LABEL : predictedLabel, false);
 
-                for (Token t : argumentCandidates(predictedFrame, predicate)) {
-                    String goldLabel = goldArguments.get(t);
-                    String predictedLabel = NIL_LABEL;
-
-                    if (goldLabel == null)
-                        goldLabel = NIL_LABEL;
-
-                    BasicDatum<String, String> datum =
-                            (BasicDatum<String, String>) featureGenerator.datumFrom(predictedFrame, t, predicate);
-
-                    datum.setLabel(PerceptronClassifier.formatManualTrainingLabel(predictedLabel, goldLabel));
-
-                    dataset.add(datum);
-                }
+                classifier.featuresOf(featureGenerator.datumFrom(predictedFrame, t, predicate), features);
+                classifier.update(features, gold, predicted);
             }
         }
-        classifier.manualTrain(dataset);
     }
 
-    void enforceConsistency(Token predicate, Token arg, String argLabel, SemanticFrameSet frameSet,
-                            boolean training, Map<Token, Counter<String>> argumentLabelScores) {
+    void enforceConsistency(Token predicate, Token arg, int argLabel, SemanticFrameSet frameSet,
+                            boolean training, List<Token> candidates, ScoreVector[] candidateScores) {
         if (enableConsistency && (!training || consistencyWhenTraining)) {
-            if (isRestrictedLabel(argLabel)) {
-                for (Token token : argumentLabelScores.keySet())
-                    argumentLabelScores.get(token).remove(argLabel);
+            boolean[] restrictedLabels = restrictedLabels();
+            if (restrictedLabels[argLabel]) {
+                for (ScoreVector scores : candidateScores)
+                    scores.exclude(argLabel);
 
                 if (arg.equals(predicate))
                     return;
@@ -236,14 +204,30 @@ public abstract class ArgumentClassifier implements Serializable {
                 Set<Token> restrictedTokens = ancestorsNotCrossingPredicate(arg, predicate, frameSet);
                 restrictedTokens.addAll(descendantsNotCrossingPredicate(arg, predicate, frameSet));
 
-                for (Token t : Sets.intersection(restrictedTokens, argumentLabelScores.keySet()))
-                    for (Iterator<String> itr = argumentLabelScores.get(t).keySet().iterator(); itr.hasNext(); )
-                        if (isRestrictedLabel(itr.next()))
-                            itr.remove();
+                for (int i = 0; i < candidates.size(); i++)
+                    if (restrictedTokens.contains(candidates.get(i)))
+                        for (int label = 0; label < restrictedLabels.length; label++)
+                            if (restrictedLabels[label])
+                                candidateScores[i].exclude(label);
             }
         }
     }
 
+    /*
+    Whether or not each label, by label id, is restricted to one argument per predicate.
+    Label ids don't change, so this only needs to be extended when labels are added.
+     */
+    private boolean[] restrictedLabels() {
+        boolean[] restrictedLabels = this.restrictedLabels;
+        if (restrictedLabels == null || restrictedLabels.length != classifier.numLabels()) {
+            restrictedLabels = new boolean[classifier.numLabels()];
+            for (int label = 0; label < restrictedLabels.length; label++)
+                restrictedLabels[label] = isRestrictedLabel(classifier.labelOf(label));
+            this.restrictedLabels = restrictedLabels;
+        }
+        return restrictedLabels;
+    }
+
     private static boolean isRestrictedLabel(String label) {
         return label.matches("A[0-9]");
     }
@@ -305,14 +289,87 @@ public abstract class ArgumentClassifier implements Serializable {
         classifier.updateAverageWeights();
     }
 
+    /**
+     * Freezes the perceptron for this classifier for inference. Features not seen in training
+     * are ignored from then on, and the classifier can no longer be trained.
+     */
+    public void freeze() {
+        classifier.freeze();
+    }
+
+    /**
+     * Returns a copy of this argument classifier for training on one shard of the data,
+     * with its own copy of the perceptron. The feature generator is shared.
+     *
+     * @return copy of this argument classifier
+     */
+    public ArgumentClassifier shardCopy() {
+        return withClassifier(classifier.shardCopy());
+    }
+
+    /*
+    Copy of this argument classifier with a different perceptron.
+     */
+    private ArgumentClassifier withClassifier(PerceptronClassifier classifier) {
+        ArgumentClassifier copy;
+        try {
+            copy = (ArgumentClassifier) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        copy.classifier = classifier;
+        return copy;
+    }
+
+    /**
+     * Returns a copy of this argument classifier with a snapshot of the whole training state of the
+     * perceptron, to be evaluated or restored later. The feature generator is shared.
+     *
+     * @return copy of this argument classifier
+     */
+    public ArgumentClassifier snapshot() {
+        return withClassifier(classifier.snapshot());
+    }
+
+    /**
+     * Returns a copy of this argument classifier with a frozen copy of the perceptron, to be evaluated
+     * without changing this classifier. The feature generator is shared.
+     *
+     * @return copy of this argument classifier
+     */
+    public ArgumentClassifier frozenCopy() {
+        return withClassifier(classifier.frozenCopy());
+    }
+
+    /**
+     * Sets the perceptron of this classifier back to the training state of a snapshot.
+     *
+     * @param snapshot copy made with snapshot()
+     */
+    public void restore(ArgumentClassifier snapshot) {
+        classifier.restore(snapshot.classifier);
+    }
+
+    /**
+     * Sets the perceptron weights of this classifier to the average of those of its shard copies.
+     *
+     * @param shards copies made with shardCopy(), and trained since
+     */
+    public void mix(List<ArgumentClassifier> shards) {
+        List<PerceptronClassifier> perceptrons = new ArrayList<PerceptronClassifier>();
+        for (ArgumentClassifier shard : shards)
+            perceptrons.add(shard.classifier);
+        classifier.mix(perceptrons);
+    }
+
     /**
      * Extracts the set of argument labels from a set of sentences.
      *
      * @param frameSets set of sentences
-     * @return collection of labels encountered in those sentences (plus NIL label)
+     * @return collection of the distinct labels encountered in those sentences (plus NIL label), in order
      */
-    public static Collection<String> getLabelSet(Collection<SemanticFrameSet> frameSets) {
-        List<String> labels = new ArrayList<String>();
+    public static Collection<String> getLabelSet(Iterable<SemanticFrameSet> frameSets) {
+        Set<String> labels = new LinkedHashSet<String>();
         labels.add(NIL_LABEL);
         for (SemanticFrameSet s : frameSets)
             for (Token predicate : s)
@@ -361,4 +418,76 @@ public abstract class ArgumentClassifier implements Serializable {
         out.writeObject(this);
         out.close();
     }
+
+    /**
+     * Saves a compacted copy of this argument classifier, for inference only. Features whose average weights
+     * are all smaller in magnitude than a threshold are dropped from the copy, and the size of the
+     * classifier before and after compaction is reported. This classifier is not modified.
+     *
+     * @param filePath            file to save classifier to
+     * @param compactionThreshold smallest largest-absolute-average-weight for a feature to be kept
+     * @throws IOException if failed to export
+     */
+    public void exportClassifier(String filePath, double compactionThreshold) throws IOException {
+        withClassifier(classifier.compactedCopy(compactionThreshold)).exportClassifier(filePath);
+        System.err.println("Exported compacted argument classifier: " + new File(filePath).length() + " bytes");
+    }
+
+    /**
+     * Loads a argument classifier saved with exportBinaryClassifier(). The weights are
+     * memory-mapped rather than read, and the loaded classifier is frozen.
+     *
+     * @param filePath file to load classifier from
+     * @return imported classifier
+     * @throws IOException            if failed to load
+     * @throws ClassNotFoundException if class found is not a ArgumentClassifier
+     */
+    public static ArgumentClassifier importBinaryClassifier(String filePath)
+            throws IOException, ClassNotFoundException {
+        BinaryModel model = BinaryModel.map(filePath);
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(model.metadata()));
+
+        return ((ArgumentClassifier) in.readObject()).withClassifier(model.classifier());
+    }
+
+    /**
+     * Saves the average weights of this argument classifier in the compact binary model format,
+     * for inference only.
+     *
+     * @param filePath file to save classifier to
+     * @throws IOException if failed to export
+     */
+    public void exportBinaryClassifier(String filePath) throws IOException {
+        exportBinaryClassifier(filePath, BinaryModel.WeightPrecision.DOUBLE);
+    }
+
+    /**
+     * Saves the average weights of this argument classifier in the compact binary model format,
+     * for inference only, with weights stored as floats or quantized to save memory.
+     *
+     * @param filePath  file to save classifier to
+     * @param precision precision to store the weights with
+     * @throws IOException if failed to export
+     */
+    public void exportBinaryClassifier(String filePath, BinaryModel.WeightPrecision precision) throws IOException {
+        ByteArrayOutputStream shell = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(shell);
+        out.writeObject(withClassifier(null));
+        out.close();
+
+        BinaryModel.write(classifier, shell.toByteArray(), filePath, precision);
+    }
+
+    /**
+     * Converts a argument classifier saved with exportClassifier() to the binary model format.
+     *
+     * @param filePath       file to load classifier from
+     * @param binaryFilePath file to save binary classifier to
+     * @throws IOException            if failed to load or export
+     * @throws ClassNotFoundException if class found is not a ArgumentClassifier
+     */
+    public static void convertClassifier(String filePath, String binaryFilePath)
+            throws IOException, ClassNotFoundException {
+        importClassifier(filePath).exportBinaryClassifier(binaryFilePath);
+    }
 }
@@ -1,16 +1,13 @@
 package spinach.argumentclassifier;
 
-import edu.stanford.nlp.stats.Counter;
-import edu.stanford.nlp.stats.Counters;
-import edu.stanford.nlp.util.Pair;
 import spinach.argumentclassifier.featuregen.ArgumentFeatureGenerator;
 import spinach.classifier.PerceptronClassifier;
+import spinach.classifier.ScoreVector;
 import spinach.sentence.SemanticFrameSet;
 import spinach.sentence.Token;
 import spinach.sentence.TokenSentenceAndPredicates;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.List;
 
 /**
  * An implementation of an ArgumentClassifier that iterates left-to-right
@@ -23,9 +20,6 @@ public class EasyFirstArgumentClassifier extends ArgumentClassifier {
 
     private static final long serialVersionUID = 7822422638276122112L;
 
-    private transient Map<Token, Counter<String>> argumentLabelScores;
-    private transient SemanticFrameSet frameSet;
-
     /**
      * Instantiates a new EasyFirstArgumentClassifier.
      *
@@ -39,57 +33,60 @@ public class EasyFirstArgumentClassifier extends ArgumentClassifier {
     @Override
     protected SemanticFrameSet framesWithArguments(TokenSentenceAndPredicates sentenceAndPredicates, boolean training) {
 
-        frameSet = new SemanticFrameSet(sentenceAndPredicates);
+        SemanticFrameSet frameSet = new SemanticFrameSet(sentenceAndPredicates);
+        int nilLabel = classifier.labelIndexOf(NIL_LABEL);
 
         for (Token predicate : frameSet.getPredicateList()) {
-            argumentLabelScores = new LinkedHashMap<Token, Counter<String>>();
+            List<Token> candidates = ArgumentClassifier.argumentCandidates(sentenceAndPredicates, predicate);
+            ScoreVector[] argumentLabelScores = new ScoreVector[candidates.size()];
+            boolean[] classified = new boolean[candidates.size()];
 
-            for (Token possibleArg :
-                    ArgumentClassifier.argumentCandidates(sentenceAndPredicates, predicate)) {
-                argumentLabelScores.put(possibleArg, argClassScores(frameSet, possibleArg, predicate, training));
+            for (int i = 0; i < candidates.size(); i++) {
+                argumentLabelScores[i] = new ScoreVector(classifier.numLabels());
+                scoreArgument(frameSet, candidates.get(i), predicate, argumentLabelScores[i], training);
             }
 
-            while (!argumentLabelScores.isEmpty()) {
-                Pair<Token, String> bestArgAndLabel = bestArgAndLabel();
-                Token arg = bestArgAndLabel.first();
-                String argLabel = bestArgAndLabel.second();
+            for (int remaining = candidates.size(); remaining > 0; remaining--) {
+                int best = bestArg(argumentLabelScores, classified);
+                int argLabel = argumentLabelScores[best].argMax();
 
-                argumentLabelScores.remove(arg);
+                classified[best] = true;
 
-                if (argLabel == null || argLabel.equals(NIL_LABEL))
+                if (argLabel < 0 || argLabel == nilLabel)
                     continue;
 
-                classifyArg(arg, predicate, argLabel, training);
+                Token arg = candidates.get(best);
+                frameSet.addArgument(predicate, arg, classifier.labelOf(argLabel));
+
+                for (int i = 0; i < candidates.size(); i++)
+                    if (!classified[i])
+                        scoreArgument(frameSet, candidates.get(i), predicate, argumentLabelScores[i], training);
+
+                enforceConsistency(predicate, arg, argLabel, frameSet, training, candidates, argumentLabelScores);
             }
         }
 
         return frameSet;
     }
 
-    private Pair<Token, String> bestArgAndLabel() {
+    /*
+    Returns the unclassified candidate whose best label has the highest score.
+     */
+    private static int bestArg(ScoreVector[] argumentLabelScores, boolean[] classified) {
         double bestScore = Double.NEGATIVE_INFINITY;
-        Token best = null;
-        String argMax = null;
-
-        for (Map.Entry<Token, Counter<String>> entry : argumentLabelScores.entrySet()) {
-            String bestLabel = Counters.argmax(entry.getValue());
-            double value = entry.getValue().getCount(bestLabel);
-            if (value > bestScore) {
+        int best = -1;
+
+        for (int i = 0; i < argumentLabelScores.length; i++) {
+            if (classified[i])
+                continue;
+            int bestLabel = argumentLabelScores[i].argMax();
+            double value = bestLabel < 0 ? 0 : argumentLabelScores[i].get(bestLabel);
+            if (best < 0 || value > bestScore) {
                 bestScore = value;
-                best = entry.getKey();
-                argMax = bestLabel;
+                best = i;
             }
         }
 
-        return new Pair<Token, String>(best, argMax);
-    }
-
-    private void classifyArg(Token arg, Token predicate, String argLabel, boolean training) {
-        frameSet.addArgument(predicate, arg, argLabel);
-
-        for (Map.Entry<Token, Counter<String>> entry : argumentLabelScores.entrySet())
-            updateCounterScores(frameSet, entry.getKey(), predicate, entry.getValue(), training);
-
-        enforceConsistency(predicate, arg, argLabel, frameSet, training, argumentLabelScores);
+        return best;
     }
 }
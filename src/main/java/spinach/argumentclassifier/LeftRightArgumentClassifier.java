@@ -1,16 +1,13 @@
 package spinach.argumentclassifier;
 
-import edu.stanford.nlp.stats.ClassicCounter;
-import edu.stanford.nlp.stats.Counter;
-import edu.stanford.nlp.stats.Counters;
 import spinach.argumentclassifier.featuregen.ArgumentFeatureGenerator;
 import spinach.classifier.PerceptronClassifier;
+import spinach.classifier.ScoreVector;
 import spinach.sentence.SemanticFrameSet;
 import spinach.sentence.Token;
 import spinach.sentence.TokenSentenceAndPredicates;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.List;
 
 /**
  * An argument classifier implementation that goes from left to right through the predicates, and iterates
@@ -34,25 +31,24 @@ public class LeftRightArgumentClassifier extends ArgumentClassifier {
     protected SemanticFrameSet framesWithArguments(TokenSentenceAndPredicates sentenceAndPredicates, boolean training) {
 
         SemanticFrameSet frameSet = new SemanticFrameSet(sentenceAndPredicates);
+        int nilLabel = classifier.labelIndexOf(NIL_LABEL);
 
         for (Token predicate : frameSet.getPredicateList()) {
-            Map<Token, Counter<String>> argumentLabelScores =
-                    new LinkedHashMap<Token, Counter<String>>();
+            List<Token> candidates = argumentCandidates(frameSet, predicate);
+            ScoreVector[] argumentLabelScores = new ScoreVector[candidates.size()];
 
-            for (Token possibleArg : argumentCandidates(frameSet, predicate)) {
-                Counter<String> argClassScores = new ClassicCounter<String>(classifier.indexedLabels());
+            for (int i = 0; i < candidates.size(); i++)
+                argumentLabelScores[i] = new ScoreVector(classifier.numLabels());
 
-                argumentLabelScores.put(possibleArg, argClassScores);
-            }
-
-            for (Token arg : argumentLabelScores.keySet()) {
+            for (int i = 0; i < candidates.size(); i++) {
+                Token arg = candidates.get(i);
 
-                updateCounterScores(frameSet, arg, predicate, argumentLabelScores.get(arg), training);
-                String argLabel = Counters.argmax(argumentLabelScores.get(arg));
+                scoreArgument(frameSet, arg, predicate, argumentLabelScores[i], training);
+                int argLabel = argumentLabelScores[i].argMax();
 
-                if (argLabel != null && !argLabel.equals(NIL_LABEL)) {
-                    frameSet.addArgument(predicate, arg, argLabel);
-                    enforceConsistency(predicate, arg, argLabel, frameSet, training, argumentLabelScores);
+                if (argLabel >= 0 && argLabel != nilLabel) {
+                    frameSet.addArgument(predicate, arg, classifier.labelOf(argLabel));
+                    enforceConsistency(predicate, arg, argLabel, frameSet, training, candidates, argumentLabelScores);
                 }
             }
         }
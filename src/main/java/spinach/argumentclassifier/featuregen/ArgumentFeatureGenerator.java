@@ -257,7 +257,7 @@ public class ArgumentFeatureGenerator implements Serializable {
      *
      * @param trainingSet training set used to train
      */
-    public void reduceFeatureSet(Collection<SemanticFrameSet> trainingSet) {
+    public void reduceFeatureSet(Iterable<SemanticFrameSet> trainingSet) {
         Counter<String> featureCounter = new ClassicCounter<String>();
 
         for (SemanticFrameSet frameSet : trainingSet)
@@ -0,0 +1,521 @@
+package spinach.classifier;
+
+import edu.stanford.nlp.util.HashIndex;
+import edu.stanford.nlp.util.Index;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A compact, versioned binary file format for perceptron classifiers, which is memory-mapped
+ * and used in place when loaded, with no deserialization pass over the weights.
+ * <p/>
+ * A model file holds, in order: a header; an opaque metadata blob, such as the serialized
+ * configuration of the object wrapping the classifier; the labels; the feature dictionary,
+ * unless features are hashed; and the average weights of the live features, either as a dense
+ * block or, when that is smaller, as compressed sparse rows. Arrays of numbers are padded to
+ * start on 8-byte boundaries, so that they can be read in place, and everything is big-endian.
+ * <p/>
+ * Only average weights are kept, so loaded classifiers are frozen. For deployment, weights can
+ * be stored as floats, or quantized to 8-bit integers with a scale factor per label, which
+ * makes the model 2 to 8 times smaller at the cost of slightly different scores.
+ *
+ * @author Calvin Huang
+ */
+public final class BinaryModel {
+
+    private static final int MAGIC = 0x53504E42;   //"SPNB"
+    private static final int VERSION = 1;
+
+    private static final int HASHED_FEATURES = 1;
+    private static final int SPARSE_WEIGHTS = 2;
+    private static final int FLOAT_WEIGHTS = 4;
+    private static final int INT8_WEIGHTS = 8;
+
+    private static final int INT8_MAX = 127;
+    private static final int MAX_SPARSE_LABELS = 1 << 16;
+
+    /**
+     * Precision that the weights of a binary model are stored with.
+     */
+    public enum WeightPrecision {
+        /**
+         * 64-bit floating point, exactly as trained
+         */
+        DOUBLE(8),
+        /**
+         * 32-bit floating point
+         */
+        FLOAT(4),
+        /**
+         * 8-bit integers, with one scale factor per label
+         */
+        INT8(1);
+
+        private final int bytes;
+
+        WeightPrecision(int bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    private final byte[] metadata;
+    private final PerceptronClassifier classifier;
+
+    private BinaryModel(byte[] metadata, PerceptronClassifier classifier) {
+        this.metadata = metadata;
+        this.classifier = classifier;
+    }
+
+    /**
+     * Returns the metadata stored with the classifier.
+     *
+     * @return metadata
+     */
+    public byte[] metadata() {
+        return metadata;
+    }
+
+    /**
+     * Returns the classifier, which reads its feature dictionary and weights from the mapped file.
+     *
+     * @return frozen classifier
+     */
+    public PerceptronClassifier classifier() {
+        return classifier;
+    }
+
+    /**
+     * Writes the average weights of a classifier to a binary model file, at full precision.
+     *
+     * @param classifier classifier to write
+     * @param metadata   bytes to store with the classifier
+     * @param filePath   file to write to
+     * @throws IOException if failed to write
+     */
+    public static void write(PerceptronClassifier classifier, byte[] metadata, String filePath) throws IOException {
+        write(classifier, metadata, filePath, WeightPrecision.DOUBLE);
+    }
+
+    /**
+     * Writes the average weights of a classifier to a binary model file.
+     *
+     * @param classifier classifier to write
+     * @param metadata   bytes to store with the classifier
+     * @param filePath   file to write to
+     * @param precision  precision to store the weights with
+     * @throws IOException if failed to write
+     */
+    public static void write(PerceptronClassifier classifier, byte[] metadata, String filePath,
+                             WeightPrecision precision) throws IOException {
+        classifier.updateAverageWeights();
+
+        FeatureSpace featureSpace = classifier.featureSpace();
+        Index<String> labelIndex = classifier.labelIndex();
+        WeightMatrix weights = classifier.weights();
+
+        int numLabels = labelIndex.size();
+        int numFeatures = Math.min(featureSpace.size(), weights.featureCapacity());
+        boolean hashed = featureSpace instanceof HashedFeatureSpace;
+
+        double[] scales = precision == WeightPrecision.INT8 ? int8Scales(weights, numFeatures, numLabels) : null;
+        WeightEncoder encoder = new WeightEncoder(weights, precision, scales);
+
+        long nonZero = 0;
+        for (int f = 0; f < numFeatures; f++)
+            for (int label = 0; label < numLabels; label++)
+                if (encoder.encode(f, label) != 0)
+                    nonZero++;
+        long denseSize = (long) precision.bytes * numFeatures * numLabels;
+        long sparseSize = 4L * (numFeatures + 1) + (2 + precision.bytes) * nonZero;
+        boolean sparse = numLabels <= MAX_SPARSE_LABELS && sparseSize < denseSize;
+
+        int flags = hashed ? HASHED_FEATURES : 0;
+        if (sparse)
+            flags |= SPARSE_WEIGHTS;
+        if (precision == WeightPrecision.FLOAT)
+            flags |= FLOAT_WEIGHTS;
+        else if (precision == WeightPrecision.INT8)
+            flags |= INT8_WEIGHTS;
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filePath)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(flags);
+            out.writeInt(numLabels);
+            out.writeInt(numFeatures);
+            out.writeInt(hashed ? ((HashedFeatureSpace) featureSpace).bits() : 0);
+
+            out.writeInt(metadata.length);
+            out.write(metadata);
+
+            for (String label : labelIndex.objectsList())
+                writeString(out, label);
+            pad(out);
+
+            if (!hashed)
+                writeDictionary(out, featureSpace, numFeatures);
+
+            if (scales != null)
+                for (double scale : scales)
+                    out.writeDouble(scale);
+
+            if (sparse)
+                writeSparseWeights(out, encoder, numFeatures, numLabels, (int) nonZero);
+            else
+                for (int f = 0; f < numFeatures; f++)
+                    for (int label = 0; label < numLabels; label++)
+                        encoder.write(out, encoder.encode(f, label));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(MappedFeatureSpace.UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void pad(DataOutputStream out) throws IOException {
+        while (out.size() % 8 != 0)
+            out.writeByte(0);
+    }
+
+    private static void writeDictionary(DataOutputStream out, FeatureSpace featureSpace, int numFeatures)
+            throws IOException {
+        int tableSize = MappedFeatureSpace.tableSize(numFeatures);
+        int[] table = new int[tableSize];
+        byte[][] features = new byte[numFeatures][];
+
+        for (int row = 0; row < numFeatures; row++) {
+            String feature = featureSpace.featureAt(row);
+            features[row] = feature.getBytes(MappedFeatureSpace.UTF8);
+
+            int slot = MappedFeatureSpace.slotOf(feature, tableSize);
+            while (table[slot] != 0)
+                slot = (slot + 1) & (tableSize - 1);
+            table[slot] = row + 1;
+        }
+
+        out.writeInt(tableSize);
+        pad(out);
+        for (int slot : table)
+            out.writeInt(slot);
+        pad(out);
+
+        int offset = 0;
+        for (byte[] feature : features) {
+            out.writeInt(offset);
+            offset += feature.length;
+        }
+        out.writeInt(offset);
+
+        out.writeInt(offset);
+        for (byte[] feature : features)
+            out.write(feature);
+        pad(out);
+    }
+
+    private static void writeSparseWeights(DataOutputStream out, WeightEncoder encoder,
+                                           int numFeatures, int numLabels, int nonZero) throws IOException {
+        out.writeInt(nonZero);
+        pad(out);
+
+        int start = 0;
+        for (int f = 0; f < numFeatures; f++) {
+            out.writeInt(start);
+            for (int label = 0; label < numLabels; label++)
+                if (encoder.encode(f, label) != 0)
+                    start++;
+        }
+        out.writeInt(start);
+        pad(out);
+
+        for (int f = 0; f < numFeatures; f++)
+            for (int label = 0; label < numLabels; label++)
+                if (encoder.encode(f, label) != 0)
+                    out.writeChar(label);
+        pad(out);
+
+        for (int f = 0; f < numFeatures; f++)
+            for (int label = 0; label < numLabels; label++) {
+                double weight = encoder.encode(f, label);
+                if (weight != 0)
+                    encoder.write(out, weight);
+            }
+    }
+
+    /*
+    Scale factor of each label for 8-bit quantization, so that its largest weight maps to 127.
+     */
+    private static double[] int8Scales(WeightMatrix weights, int numFeatures, int numLabels) {
+        double[] scales = new double[numLabels];
+        for (int f = 0; f < numFeatures; f++)
+            for (int label = 0; label < numLabels; label++)
+                scales[label] = Math.max(scales[label], Math.abs(weights.averageWeight(f, label)));
+        for (int label = 0; label < numLabels; label++)
+            scales[label] /= INT8_MAX;
+        return scales;
+    }
+
+    /**
+     * Converts average weights to the values stored for a precision.
+     */
+    private static class WeightEncoder {
+
+        private final WeightMatrix weights;
+        private final WeightPrecision precision;
+        private final double[] scales;
+
+        WeightEncoder(WeightMatrix weights, WeightPrecision precision, double[] scales) {
+            this.weights = weights;
+            this.precision = precision;
+            this.scales = scales;
+        }
+
+        /*
+        Value to be stored for a weight: the weight itself, or for 8-bit quantization, the multiple of the label's scale.
+         */
+        double encode(int feature, int label) {
+            double weight = weights.averageWeight(feature, label);
+            switch (precision) {
+                case FLOAT:
+                    return (float) weight;
+                case INT8:
+                    return scales[label] == 0 ? 0 : Math.round(weight / scales[label]);
+                default:
+                    return weight;
+            }
+        }
+
+        void write(DataOutputStream out, double value) throws IOException {
+            switch (precision) {
+                case FLOAT:
+                    out.writeFloat((float) value);
+                    break;
+                case INT8:
+                    out.writeByte((int) value);
+                    break;
+                default:
+                    out.writeDouble(value);
+            }
+        }
+    }
+
+    /**
+     * Memory-maps a binary model file. The file must not be modified while the model is in use.
+     *
+     * @param filePath file to load
+     * @return loaded model
+     * @throws IOException if the file can't be read, or is not a binary model
+     */
+    public static BinaryModel map(String filePath) throws IOException {
+        ByteBuffer buffer;
+        RandomAccessFile file = new RandomAccessFile(filePath, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Binary model is too large to map: " + filePath);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            file.close();   //the mapping stays valid
+        }
+
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC)
+            throw new IOException("Not a binary model: " + filePath);
+        int version = buffer.getInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported binary model version " + version + ": " + filePath);
+
+        int flags = buffer.getInt();
+        int numLabels = buffer.getInt();
+        int numFeatures = buffer.getInt();
+        int hashBits = buffer.getInt();
+
+        byte[] metadata = new byte[buffer.getInt()];
+        buffer.get(metadata);
+
+        Index<String> labelIndex = new HashIndex<String>();
+        for (int label = 0; label < numLabels; label++) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            labelIndex.add(new String(bytes, MappedFeatureSpace.UTF8));
+        }
+        align(buffer);
+
+        FeatureSpace featureSpace;
+        if ((flags & HASHED_FEATURES) != 0) {
+            featureSpace = new HashedFeatureSpace(hashBits);
+        } else {
+            int tableSize = buffer.getInt();
+            align(buffer);
+            IntBuffer table = section(buffer, 4 * tableSize).asIntBuffer();
+            align(buffer);
+            IntBuffer offsets = section(buffer, 4 * (numFeatures + 1)).asIntBuffer();
+            ByteBuffer pool = section(buffer, buffer.getInt());
+            align(buffer);
+            featureSpace = new MappedFeatureSpace(numFeatures, table, offsets, pool);
+        }
+
+        WeightPrecision precision = (flags & FLOAT_WEIGHTS) != 0 ? WeightPrecision.FLOAT :
+                (flags & INT8_WEIGHTS) != 0 ? WeightPrecision.INT8 : WeightPrecision.DOUBLE;
+        double[] scales = null;
+        if (precision == WeightPrecision.INT8) {
+            scales = new double[numLabels];
+            for (int label = 0; label < numLabels; label++)
+                scales[label] = buffer.getDouble();
+        }
+
+        WeightBlock block;
+        if ((flags & SPARSE_WEIGHTS) != 0) {
+            int nonZero = buffer.getInt();
+            align(buffer);
+            IntBuffer rowStarts = section(buffer, 4 * (numFeatures + 1)).asIntBuffer();
+            align(buffer);
+            CharBuffer labels = section(buffer, 2 * nonZero).asCharBuffer();
+            align(buffer);
+            Values values = values(section(buffer, precision.bytes * nonZero), precision, scales);
+            block = new SparseBlock(numFeatures, rowStarts, labels, values);
+        } else {
+            Values values = values(section(buffer, precision.bytes * numFeatures * numLabels), precision, scales);
+            block = new DenseBlock(numFeatures, numLabels, values);
+        }
+
+        PerceptronClassifier classifier = new PerceptronClassifier(featureSpace, labelIndex,
+                new WeightMatrix(block, numLabels));
+        return new BinaryModel(metadata, classifier);
+    }
+
+    /*
+    Returns the next length bytes of the buffer as a separate buffer, and skips past them.
+     */
+    private static ByteBuffer section(ByteBuffer buffer, int length) {
+        ByteBuffer section = buffer.slice();
+        section.limit(length);
+        buffer.position(buffer.position() + length);
+        return section;
+    }
+
+    private static void align(ByteBuffer buffer) {
+        buffer.position((buffer.position() + 7) & ~7);
+    }
+
+    private static Values values(ByteBuffer section, WeightPrecision precision, final double[] scales) {
+        switch (precision) {
+            case FLOAT:
+                final FloatBuffer floats = section.asFloatBuffer();
+                return new Values() {
+                    @Override
+                    double get(int i, int label) {
+                        return floats.get(i);
+                    }
+                };
+            case INT8:
+                final ByteBuffer bytes = section;
+                return new Values() {
+                    @Override
+                    double get(int i, int label) {
+                        return bytes.get(i) * scales[label];
+                    }
+                };
+            default:
+                final DoubleBuffer doubles = section.asDoubleBuffer();
+                return new Values() {
+                    @Override
+                    double get(int i, int label) {
+                        return doubles.get(i);
+                    }
+                };
+        }
+    }
+
+    /**
+     * Stored weights, decoded to doubles.
+     */
+    private abstract static class Values {
+
+        /*
+        Returns the i-th stored weight, which is a weight for some label.
+         */
+        abstract double get(int i, int label);
+    }
+
+    /**
+     * Weights of every label for every feature, feature-major.
+     */
+    private static class DenseBlock implements WeightBlock {
+
+        private final int numFeatures;
+        private final int numLabels;
+        private final Values weights;
+
+        DenseBlock(int numFeatures, int numLabels, Values weights) {
+            this.numFeatures = numFeatures;
+            this.numLabels = numLabels;
+            this.weights = weights;
+        }
+
+        @Override
+        public int numFeatures() {
+            return numFeatures;
+        }
+
+        @Override
+        public void addRow(int feature, double[] scores) {
+            for (int slot = feature * numLabels, label = 0; label < numLabels; slot++, label++)
+                scores[label] += weights.get(slot, label);
+        }
+
+        @Override
+        public double get(int feature, int label) {
+            return weights.get(feature * numLabels + label, label);
+        }
+    }
+
+    /**
+     * Non-zero weights in compressed sparse rows: the weights of feature f are entries
+     * rowStarts[f] to rowStarts[f + 1], in order of label.
+     */
+    private static class SparseBlock implements WeightBlock {
+
+        private final int numFeatures;
+        private final IntBuffer rowStarts;
+        private final CharBuffer labels;
+        private final Values values;
+
+        SparseBlock(int numFeatures, IntBuffer rowStarts, CharBuffer labels, Values values) {
+            this.numFeatures = numFeatures;
+            this.rowStarts = rowStarts;
+            this.labels = labels;
+            this.values = values;
+        }
+
+        @Override
+        public int numFeatures() {
+            return numFeatures;
+        }
+
+        @Override
+        public void addRow(int feature, double[] scores) {
+            for (int i = rowStarts.get(feature), end = rowStarts.get(feature + 1); i < end; i++) {
+                int label = labels.get(i);
+                scores[label] += values.get(i, label);
+            }
+        }
+
+        @Override
+        public double get(int feature, int label) {
+            for (int i = rowStarts.get(feature), end = rowStarts.get(feature + 1); i < end; i++)
+                if (labels.get(i) == label)
+                    return values.get(i, label);
+            return 0;
+        }
+    }
+}
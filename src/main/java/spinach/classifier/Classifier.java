@@ -25,6 +25,37 @@ public interface Classifier {
      */
     public String classOf(Datum<String, String> datum);
 
+    /**
+     * Scores every label for some datum, by label id. Labels excluded from the score vector stay excluded.
+     *
+     * @param datum  datum to be examined
+     * @param scores vector to write the scores of the labels to
+     */
+    public void scoresOf(Datum<String, String> datum, ScoreVector scores);
+
+    /**
+     * Returns the number of labels, whose ids are 0 to numLabels() - 1
+     *
+     * @return number of labels
+     */
+    public int numLabels();
+
+    /**
+     * Returns the id of a label. Once assigned, the id of a label does not change.
+     *
+     * @param label label to look up
+     * @return id of that label, or -1 if the label is unknown
+     */
+    public int labelIndexOf(String label);
+
+    /**
+     * Returns the label with some id
+     *
+     * @param labelId id of the label
+     * @return label
+     */
+    public String labelOf(int labelId);
+
     /**
      * Trains a classifier on some dataset
      *
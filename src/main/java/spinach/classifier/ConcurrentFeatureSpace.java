@@ -0,0 +1,218 @@
+package spinach.classifier;
+
+import edu.stanford.nlp.util.Index;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A dictionary of feature strings that several threads can add features to at once.
+ * <p/>
+ * Features are spread over a fixed number of stripes by hash, each an open-addressing hash table
+ * with linear probing. Lookups take no locks. Adding a feature locks only its stripe, and takes the
+ * next row from a shared counter, so rows are assigned in the order features are added and never change.
+ * Feature strings are kept by row in fixed-size chunks, which are never moved once allocated.
+ *
+ * @author Calvin Huang
+ */
+class ConcurrentFeatureSpace implements FeatureSpace {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int STRIPE_BITS = 6;
+    private static final int MIN_STRIPE_CAPACITY = 16;
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    /*
+    A table is replaced, rather than modified in place, when its stripe grows. A slot's row is
+    written before its key, and keys are read and written with volatile semantics, so a thread
+    that sees a key also sees its row.
+     */
+    private static class Table {
+        final AtomicReferenceArray<String> keys;
+        final int[] rows;
+
+        Table(int capacity) {
+            keys = new AtomicReferenceArray<String>(capacity);
+            rows = new int[capacity];
+        }
+    }
+
+    private static class Stripe {
+        volatile Table table = new Table(MIN_STRIPE_CAPACITY);
+        int size;       //guarded by the stripe
+    }
+
+    private volatile boolean locked;
+
+    private transient Stripe[] stripes;
+    private transient AtomicInteger size;
+    private transient volatile String[][] chunks;
+
+    /**
+     * Creates an empty dictionary.
+     */
+    ConcurrentFeatureSpace() {
+        init();
+    }
+
+    /**
+     * Creates a dictionary holding the features of an index, in the same rows.
+     *
+     * @param index features to start with
+     */
+    ConcurrentFeatureSpace(Index<String> index) {
+        init();
+        for (String feature : index)
+            indexOf(feature, true);
+    }
+
+    private void init() {
+        stripes = new Stripe[1 << STRIPE_BITS];
+        for (int i = 0; i < stripes.length; i++)
+            stripes[i] = new Stripe();
+        size = new AtomicInteger();
+        chunks = new String[0][];
+    }
+
+    @Override
+    public int indexOf(String feature, boolean add) {
+        int hash = HashUtils.mix(feature.hashCode());
+        Stripe stripe = stripes[hash & (stripes.length - 1)];
+
+        int row = find(stripe.table, feature, hash);
+        if (row >= 0 || !add || locked)
+            return row;
+
+        synchronized (stripe) {
+            row = find(stripe.table, feature, hash);
+            if (row >= 0 || locked)
+                return row;
+
+            row = size.getAndIncrement();
+            store(row, feature);
+            insert(stripe, feature, hash, row);
+            return row;
+        }
+    }
+
+    private static int find(Table table, String feature, int hash) {
+        int mask = table.rows.length - 1;
+        for (int slot = (hash >>> STRIPE_BITS) & mask; ; slot = (slot + 1) & mask) {
+            String key = table.keys.get(slot);
+            if (key == null)
+                return -1;
+            if (key.equals(feature))
+                return table.rows[slot];
+        }
+    }
+
+    /*
+    Must be called with the stripe locked.
+     */
+    private static void insert(Stripe stripe, String feature, int hash, int row) {
+        Table table = stripe.table;
+        if (2 * (stripe.size + 1) > table.rows.length) {
+            Table grown = new Table(2 * table.rows.length);
+            for (int slot = 0; slot < table.rows.length; slot++) {
+                String key = table.keys.get(slot);
+                if (key != null)
+                    put(grown, key, HashUtils.mix(key.hashCode()), table.rows[slot]);
+            }
+            stripe.table = table = grown;
+        }
+        put(table, feature, hash, row);
+        stripe.size++;
+    }
+
+    private static void put(Table table, String feature, int hash, int row) {
+        int mask = table.rows.length - 1;
+        int slot = (hash >>> STRIPE_BITS) & mask;
+        while (table.keys.get(slot) != null)
+            slot = (slot + 1) & mask;
+        table.rows[slot] = row;
+        table.keys.set(slot, feature);
+    }
+
+    private void store(int row, String feature) {
+        int chunk = row >>> CHUNK_BITS;
+        String[][] chunks = this.chunks;
+        if (chunk >= chunks.length || chunks[chunk] == null)
+            chunks = allocateChunk(chunk);
+        chunks[chunk][row & CHUNK_MASK] = feature;
+    }
+
+    private synchronized String[][] allocateChunk(int chunk) {
+        String[][] chunks = this.chunks;
+        if (chunk < chunks.length && chunks[chunk] != null)
+            return chunks;
+
+        String[][] grown = chunk < chunks.length ? chunks :
+                Arrays.copyOf(chunks, Math.max(chunk + 1, 2 * chunks.length));
+        for (int i = 0; i <= chunk; i++)
+            if (grown[i] == null)
+                grown[i] = new String[1 << CHUNK_BITS];
+        this.chunks = grown;     //republished even if not grown, so that the new chunk is visible
+        return grown;
+    }
+
+    @Override
+    public String featureAt(int row) {
+        return chunks[row >>> CHUNK_BITS][row & CHUNK_MASK];
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public boolean isFixedSize() {
+        return false;
+    }
+
+    @Override
+    public void lock() {
+        locked = true;
+    }
+
+    @Override
+    public FeatureSpace copy() {
+        ConcurrentFeatureSpace copy = new ConcurrentFeatureSpace();
+        for (int row = 0, n = size(); row < n; row++)
+            copy.indexOf(featureAt(row), true);
+        return copy;
+    }
+
+    @Override
+    public int[] rowsIn(FeatureSpace target) {
+        int[] rows = new int[size()];
+        for (int i = 0; i < rows.length; i++)
+            rows[i] = target.indexOf(featureAt(i), true);
+        return rows;
+    }
+
+    private void writeObject(ObjectOutputStream oos) throws IOException {
+        oos.defaultWriteObject();
+        int n = size();
+        oos.writeInt(n);
+        for (int row = 0; row < n; row++)
+            oos.writeObject(featureAt(row));
+    }
+
+    private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+        ois.defaultReadObject();
+        init();
+
+        boolean wasLocked = locked;
+        locked = false;
+        for (int row = 0, n = ois.readInt(); row < n; row++)
+            indexOf((String) ois.readObject(), true);
+        locked = wasLocked;
+    }
+}
@@ -0,0 +1,63 @@
+package spinach.classifier;
+
+import java.io.Serializable;
+
+/**
+ * Maps feature strings to the rows of a classifier's weight matrix.
+ *
+ * @author Calvin Huang
+ */
+interface FeatureSpace extends Serializable {
+
+    /**
+     * Returns the row for some feature.
+     *
+     * @param feature feature string
+     * @param add     whether or not to assign a row to the feature if it doesn't have one
+     * @return row of the feature, or -1 if it has none and add is false (or this space is locked)
+     */
+    int indexOf(String feature, boolean add);
+
+    /**
+     * Returns the feature string of some row.
+     *
+     * @param row row of the feature, less than size()
+     * @return feature string, or null if this space keeps no feature strings
+     */
+    String featureAt(int row);
+
+    /**
+     * Number of rows currently in use; every row returned by indexOf() is less than this.
+     *
+     * @return number of rows
+     */
+    int size();
+
+    /**
+     * Whether or not the number of rows is fixed up front, rather than growing as features are added.
+     *
+     * @return true if size() never changes
+     */
+    boolean isFixedSize();
+
+    /**
+     * Stops any new features from being added.
+     */
+    void lock();
+
+    /**
+     * Returns a copy of this feature space, to which features can be added independently.
+     *
+     * @return copy of this feature space
+     */
+    FeatureSpace copy();
+
+    /**
+     * Maps each row of this feature space to the row of the same feature in another feature space,
+     * adding features to the other space as needed.
+     *
+     * @param target feature space to map rows into
+     * @return row in target of each row in this space, or null if the rows are the same in both spaces
+     */
+    int[] rowsIn(FeatureSpace target);
+}
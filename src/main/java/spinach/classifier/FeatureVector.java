@@ -0,0 +1,169 @@
+package spinach.classifier;
+
+import java.util.Arrays;
+
+/**
+ * A sparse binary feature vector, stored as a sorted, deduplicated array of feature indices.
+ * Features are appended with add(), and the vector must be normalized with normalize()
+ * before it is handed to a classifier.
+ *
+ * @author Calvin Huang
+ */
+public class FeatureVector {
+
+    private static final int DEFAULT_CAPACITY = 32;
+
+    private int[] indices;
+    private int length;
+
+    /**
+     * Creates an empty feature vector.
+     */
+    public FeatureVector() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty feature vector with room for some number of features.
+     *
+     * @param capacity number of features to allocate room for
+     */
+    public FeatureVector(int capacity) {
+        indices = new int[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Creates a normalized feature vector from an array of feature indices.
+     * The array is copied, and may be unsorted and contain duplicates.
+     *
+     * @param featureIndices indices of the features that are present
+     */
+    public FeatureVector(int[] featureIndices) {
+        indices = Arrays.copyOf(featureIndices, Math.max(featureIndices.length, 1));
+        length = featureIndices.length;
+        normalize();
+    }
+
+    /**
+     * Appends a feature index. normalize() must be called after all features are added.
+     *
+     * @param index index of the feature
+     */
+    public void add(int index) {
+        if (length == indices.length)
+            indices = Arrays.copyOf(indices, indices.length * 2);
+        indices[length++] = index;
+    }
+
+    /**
+     * Sorts the feature indices and removes duplicates.
+     *
+     * @return this feature vector
+     */
+    public FeatureVector normalize() {
+        if (length < 2)
+            return this;
+
+        Arrays.sort(indices, 0, length);
+
+        int unique = 1;
+        for (int i = 1; i < length; i++)
+            if (indices[i] != indices[unique - 1])
+                indices[unique++] = indices[i];
+        length = unique;
+
+        return this;
+    }
+
+    /**
+     * Removes all the features from this vector, keeping its allocated capacity.
+     */
+    public void clear() {
+        length = 0;
+    }
+
+    /**
+     * Number of features in this vector.
+     *
+     * @return number of features
+     */
+    public int size() {
+        return length;
+    }
+
+    /**
+     * Returns the i-th smallest feature index in this vector.
+     *
+     * @param i position in the vector (0 &lt;= i &lt; size())
+     * @return feature index at that position
+     */
+    public int get(int i) {
+        if (i >= length)
+            throw new IndexOutOfBoundsException("Feature " + i + " of " + length);
+        return indices[i];
+    }
+
+    /**
+     * Largest feature index in this vector, or -1 if it is empty.
+     *
+     * @return largest feature index
+     */
+    public int maxIndex() {
+        return length == 0 ? -1 : indices[length - 1];
+    }
+
+    /*
+    Direct access to the backing array, for use in the weight kernels.
+    Only the first size() elements are valid.
+     */
+    int[] indices() {
+        return indices;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this)
+            return true;
+        if (!(o instanceof FeatureVector))
+            return false;
+
+        FeatureVector v = (FeatureVector) o;
+        if (v.length != length)
+            return false;
+        for (int i = 0; i < length; i++)
+            if (indices[i] != v.indices[i])
+                return false;
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int i = 0; i < length; i++)
+            hash = 31 * hash + indices[i];
+        return hash;
+    }
+
+    /*
+    64-bit fingerprint of a normalized vector, for caching its scores. Each index is mixed in with
+    the finalization step of MurmurHash3's 64-bit variant, so that vectors that differ in any
+    index almost certainly get different fingerprints.
+     */
+    long fingerprint() {
+        long h = length;
+        for (int i = 0; i < length; i++) {
+            h = (h ^ indices[i]) * 0x9e3779b97f4a7c15L;
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(Arrays.copyOf(indices, length));
+    }
+}
@@ -0,0 +1,29 @@
+package spinach.classifier;
+
+/**
+ * Hashing helpers shared by the hash tables of feature spaces and weight columns.
+ *
+ * @author Calvin Huang
+ */
+final class HashUtils {
+
+    private HashUtils() {
+    }
+
+    /**
+     * Finalization step of MurmurHash3, so that the low bits of a hash depend on all of its bits.
+     * Tables that are indexed by the low bits of a hash, such as those with a power-of-two
+     * number of slots, should mix the hash first.
+     *
+     * @param h hash to mix
+     * @return mixed hash
+     */
+    static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
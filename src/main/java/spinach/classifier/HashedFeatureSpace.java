@@ -0,0 +1,78 @@
+package spinach.classifier;
+
+/**
+ * A feature space that uses the hashing trick: each feature string is hashed into one of
+ * 2^bits rows, and no dictionary of feature strings is kept. Features that collide share
+ * a row, so fewer bits trade accuracy for memory.
+ *
+ * @author Calvin Huang
+ */
+class HashedFeatureSpace implements FeatureSpace {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int MIN_BITS = 1;
+    static final int MAX_BITS = 28;
+
+    private final int bits;
+    private final int mask;
+
+    HashedFeatureSpace(int bits) {
+        if (bits < MIN_BITS || bits > MAX_BITS)
+            throw new IllegalArgumentException("Feature hash bits must be between " + MIN_BITS + " and " + MAX_BITS);
+        this.bits = bits;
+        this.mask = (1 << bits) - 1;
+    }
+
+    int bits() {
+        return bits;
+    }
+
+    /**
+     * Every feature has a row, so add and locking make no difference.
+     */
+    @Override
+    public int indexOf(String feature, boolean add) {
+        return HashUtils.mix(feature.hashCode()) & mask;
+    }
+
+    /**
+     * Feature strings aren't kept, so there is no feature string for any row.
+     */
+    @Override
+    public String featureAt(int row) {
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return mask + 1;
+    }
+
+    @Override
+    public boolean isFixedSize() {
+        return true;
+    }
+
+    @Override
+    public void lock() {
+    }
+
+    /**
+     * Hashed feature spaces never change, so they can be shared rather than copied.
+     */
+    @Override
+    public FeatureSpace copy() {
+        return this;
+    }
+
+    /**
+     * Rows can only be mapped to a hashed feature space of the same size, where they are the same.
+     */
+    @Override
+    public int[] rowsIn(FeatureSpace target) {
+        if (!(target instanceof HashedFeatureSpace) || ((HashedFeatureSpace) target).bits != bits)
+            throw new IllegalArgumentException("Hashed features can only be mapped to the same hashed feature space");
+        return null;
+    }
+}
@@ -0,0 +1,152 @@
+package spinach.classifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Trains a weight matrix on a fixed set of data with several threads, Hogwild-style:
+ * each epoch, the data is shuffled and split into one shard per thread, and every thread
+ * updates the shared weights without taking any locks. Occasional lost updates are the
+ * price for not synchronizing; the data is sparse, so threads rarely touch the same slots.
+ * <p/>
+ * Averaging follows the same schedule as sequential training: examples are numbered by
+ * a shared counter, and an update made by the k-th example counts towards the averages
+ * from the iteration it would have had if the examples had been processed in sequence.
+ *
+ * @author Calvin Huang
+ */
+class HogwildTrainer {
+
+    private final WeightMatrix weights;
+    private final FeatureVector[] data;
+    private final int[] labels;
+    private final int numThreads;
+    private final int burnInPeriod;
+
+    private final long firstIterationExample;
+    private final int startIteration;
+    private final AtomicLong exampleCount;
+
+    /**
+     * @param weights      weights to train, which must already have rows for every feature in the data
+     *                     and have been densified
+     * @param data         normalized feature vectors of the data
+     * @param labels       gold label id of each datum
+     * @param numThreads   number of worker threads
+     * @param burnInPeriod number of examples to see before updates count towards the averages
+     * @param examplesSoFar number of examples the weights have already been trained on
+     */
+    HogwildTrainer(WeightMatrix weights, FeatureVector[] data, int[] labels,
+                   int numThreads, int burnInPeriod, int examplesSoFar) {
+        this.weights = weights;
+        this.data = data;
+        this.labels = labels;
+        this.numThreads = numThreads;
+        this.burnInPeriod = burnInPeriod;
+
+        firstIterationExample = Math.max(examplesSoFar, burnInPeriod);
+        startIteration = weights.currentIteration();
+        exampleCount = new AtomicLong(examplesSoFar);
+    }
+
+    /**
+     * Number of examples trained on, including those before this trainer was created.
+     *
+     * @return number of examples
+     */
+    int exampleCount() {
+        return (int) exampleCount.get();
+    }
+
+    /**
+     * Runs a number of epochs over the data, shuffling it with the epoch number as the seed.
+     *
+     * @param epochs number of epochs
+     */
+    void train(int epochs) {
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            for (int t = 0; t < epochs; t++) {
+                System.err.println("Epoch: " + (t + 1) + " of " + epochs + " on " + numThreads + " threads");
+                runEpoch(shuffledOrder(t), executor);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        long examples = exampleCount.get();
+        if (examples > firstIterationExample)
+            weights.setCurrentIteration((int) (startIteration + examples - firstIterationExample));
+    }
+
+    private int[] shuffledOrder(int seed) {
+        int[] order = new int[data.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+
+        Random random = new Random(seed);
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        return order;
+    }
+
+    private void runEpoch(final int[] order, ExecutorService executor) {
+        List<Future<?>> shards = new ArrayList<Future<?>>();
+        int shardSize = (order.length + numThreads - 1) / numThreads;
+
+        for (int start = 0; start < order.length; start += shardSize) {
+            final int from = start;
+            final int to = Math.min(start + shardSize, order.length);
+            shards.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    trainShard(order, from, to);
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> shard : shards)
+                shard.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while training", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Training thread failed", e.getCause());
+        }
+    }
+
+    private void trainShard(int[] order, int from, int to) {
+        double[] scores = new double[weights.numLabels()];
+
+        for (int i = from; i < to; i++) {
+            FeatureVector features = data[order[i]];
+            int gold = labels[order[i]];
+
+            long k = exampleCount.getAndIncrement();
+            int iteration = k > burnInPeriod ? (int) (startIteration + k - firstIterationExample) : 0;
+
+            int predicted = predict(features, iteration, scores);
+            if (predicted != gold) {
+                if (predicted >= 0)
+                    weights.update(features, predicted, -1.0, iteration);
+                weights.update(features, gold, 1.0, iteration);
+            }
+        }
+    }
+
+    /*
+    Prediction uses the running average weights, like sequential training.
+     */
+    private int predict(FeatureVector features, int iteration, double[] scores) {
+        weights.runningAverageScores(features, Math.max(iteration, startIteration), scores);
+        return PerceptronClassifier.argMax(scores);
+    }
+}
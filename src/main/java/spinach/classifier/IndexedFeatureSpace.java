@@ -0,0 +1,62 @@
+package spinach.classifier;
+
+import edu.stanford.nlp.util.HashIndex;
+import edu.stanford.nlp.util.Index;
+
+/**
+ * A feature space that gives every distinct feature string its own row, using an Index.
+ *
+ * @author Calvin Huang
+ */
+class IndexedFeatureSpace implements FeatureSpace {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Index<String> index;
+
+    IndexedFeatureSpace(Index<String> index) {
+        this.index = index;
+    }
+
+    Index<String> index() {
+        return index;
+    }
+
+    @Override
+    public int indexOf(String feature, boolean add) {
+        return index.indexOf(feature, add);
+    }
+
+    @Override
+    public String featureAt(int row) {
+        return index.get(row);
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public boolean isFixedSize() {
+        return false;
+    }
+
+    @Override
+    public void lock() {
+        index.lock();
+    }
+
+    @Override
+    public FeatureSpace copy() {
+        return new IndexedFeatureSpace(new HashIndex<String>(index));
+    }
+
+    @Override
+    public int[] rowsIn(FeatureSpace target) {
+        int[] rows = new int[index.size()];
+        for (int i = 0; i < rows.length; i++)
+            rows[i] = target.indexOf(index.get(i), true);
+        return rows;
+    }
+}
@@ -0,0 +1,138 @@
+package spinach.classifier;
+
+import edu.stanford.nlp.util.HashIndex;
+import edu.stanford.nlp.util.Index;
+
+import java.io.ObjectStreamException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A read-only feature dictionary that is looked up in place in a model file, without loading it.
+ * <p/>
+ * The dictionary is an open-addressing hash table of rows, keyed by the same hash as
+ * HashedFeatureSpace, next to a pool of the UTF-8 encoded feature strings in row order.
+ * When serialized, it is replaced by an equivalent IndexedFeatureSpace.
+ *
+ * @author Calvin Huang
+ */
+class MappedFeatureSpace implements FeatureSpace {
+
+    private static final long serialVersionUID = 1L;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final int numFeatures;
+    private final IntBuffer table;
+    private final IntBuffer offsets;
+    private final ByteBuffer pool;
+
+    /**
+     * Creates a dictionary over mapped sections of a model file.
+     *
+     * @param numFeatures number of features
+     * @param table       hash table, whose size is a power of two, holding row + 1 or 0 if empty
+     * @param offsets     numFeatures + 1 offsets into the pool; feature i spans offsets i to i + 1
+     * @param pool        UTF-8 bytes of the features
+     */
+    MappedFeatureSpace(int numFeatures, IntBuffer table, IntBuffer offsets, ByteBuffer pool) {
+        this.numFeatures = numFeatures;
+        this.table = table;
+        this.offsets = offsets;
+        this.pool = pool;
+    }
+
+    /**
+     * Returns the size of the hash table for some number of features.
+     *
+     * @param numFeatures number of features
+     * @return table size, a power of two at least twice the number of features
+     */
+    static int tableSize(int numFeatures) {
+        int size = 2;
+        while (size < 2 * numFeatures)
+            size <<= 1;
+        return size;
+    }
+
+    /**
+     * Returns the first slot to probe for a feature.
+     */
+    static int slotOf(String feature, int tableSize) {
+        return HashUtils.mix(feature.hashCode()) & (tableSize - 1);
+    }
+
+    /**
+     * Features can't be added, so add makes no difference.
+     */
+    @Override
+    public int indexOf(String feature, boolean add) {
+        byte[] bytes = feature.getBytes(UTF8);
+        int mask = table.capacity() - 1;
+        for (int slot = slotOf(feature, table.capacity()); ; slot = (slot + 1) & mask) {
+            int row = table.get(slot) - 1;
+            if (row < 0)
+                return -1;
+            if (matches(row, bytes))
+                return row;
+        }
+    }
+
+    private boolean matches(int row, byte[] bytes) {
+        int start = offsets.get(row);
+        if (offsets.get(row + 1) - start != bytes.length)
+            return false;
+        for (int i = 0; i < bytes.length; i++)
+            if (pool.get(start + i) != bytes[i])
+                return false;
+        return true;
+    }
+
+    @Override
+    public String featureAt(int row) {
+        int start = offsets.get(row);
+        byte[] bytes = new byte[offsets.get(row + 1) - start];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = pool.get(start + i);
+        return new String(bytes, UTF8);
+    }
+
+    @Override
+    public int size() {
+        return numFeatures;
+    }
+
+    @Override
+    public boolean isFixedSize() {
+        return true;
+    }
+
+    @Override
+    public void lock() {
+    }
+
+    /**
+     * Mapped feature spaces never change, so they can be shared rather than copied.
+     */
+    @Override
+    public FeatureSpace copy() {
+        return this;
+    }
+
+    @Override
+    public int[] rowsIn(FeatureSpace target) {
+        int[] rows = new int[numFeatures];
+        for (int i = 0; i < rows.length; i++)
+            rows[i] = target.indexOf(featureAt(i), true);
+        return rows;
+    }
+
+    private Object writeReplace() throws ObjectStreamException {
+        Index<String> index = new HashIndex<String>(numFeatures);
+        for (int i = 0; i < numFeatures; i++)
+            index.add(featureAt(i));
+        index.lock();
+        return new IndexedFeatureSpace(index);
+    }
+}
@@ -9,155 +9,75 @@ import edu.stanford.nlp.util.Index;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * A classifier based on a multiclass perceptron.
+ * <p/>
+ * Once trained, a classifier can be frozen for inference: unknown features are then ignored
+ * rather than indexed, and neither the feature index nor the weights are modified again,
+ * so a frozen classifier may be shared between threads.
+ * <p/>
+ * Features are normally indexed by a dictionary of feature strings, to which several training
+ * threads can add features at once. Alternatively, they can be
+ * hashed into a fixed number of rows, which keeps no feature strings in memory at the cost
+ * of occasional collisions between features.
+ * <p/>
+ * A classifier can also be saved in the compact format of BinaryModel, which is memory-mapped
+ * when loaded rather than deserialized.
+ * <p/>
+ * Training on a dataset can be spread over several threads with setNumThreads(), which updates
+ * the shared weights without locking. With a single thread (the default), training is deterministic.
+ * <p/>
+ * For structured training, where the caller decodes and updates one example at a time, training can
+ * instead be spread over shard copies made with shardCopy(), whose weights are then mixed back together.
  *
  * @author Calvin Huang
  */
 public class PerceptronClassifier implements Classifier, Serializable {
 
     private static final long serialVersionUID = 1L;
-    private static final double ARRAY_INCREMENT_FACTOR = 2;
+    private static final int MIN_NUM_FEATURES = 50000;
 
     private boolean autoUpdateWeights;
     private int burnInPeriod;
     private int totalIterationCount;
+    private boolean frozen;
 
-    /**
-     * Each unique feature is assigned a number, as defined in the index.
-     * LabelWeights, for each label, provides a vector that when, multiplied
-     * by the feature vector for a datum, returns the score for that datum.
+    /*
+    Each unique feature is assigned a number, as defined in the feature space, and each
+    label is assigned a number, as defined in the label index. The weight matrix provides,
+    for each label, a vector that when multiplied by the feature vector for a datum,
+    returns the score for that datum.
      */
-    private class LabelWeights implements Serializable {
-        private static final long serialVersionUID = 1L;
-        private static final int MIN_NUM_FEATURES = 50000;
-
-        /*
-        An array of doubles provides the weight for each feature.
-        A weighted average of the weights provides a weight used during actual classification.
-         */
-        private transient double[] weights;
-        private transient double[] avgWeights;
+    private FeatureSpace featureSpace = new ConcurrentFeatureSpace();
+    private Index<String> labelIndex = new HashIndex<String>();
+    private WeightMatrix weights;
 
-        /*
-        This keeps track of the number of iterations it has been updated.
-        lastUpdateIteration keeps track of the last time the weight for a particular feature
-        has been changed, and is used when calculating the average weight for that feature.
-         */
-        private transient int currentIteration;
-        private transient int[] lastUpdateIteration;
-
-        LabelWeights(int numFeatures) {
-            if (numFeatures < MIN_NUM_FEATURES)
-                numFeatures = MIN_NUM_FEATURES;
-            weights = new double[numFeatures];
-            avgWeights = new double[numFeatures];
-
-            /*
-            Iteration number is 1-indexed. A 0 in lastUpdateIteration means it hasn't been previously updated.
-             */
-            lastUpdateIteration = new int[numFeatures];
-            currentIteration = 1;
-        }
-
-        void incrementCurrentIteration() {
-            currentIteration++;
-        }
+    private int epochs;
+    private int numThreads = 1;
 
-        void updateAverage(Set<Integer> exampleFeatureIndices) {
-            for (int i : exampleFeatureIndices)
-                updateAverageForIndex(i);
-        }
-
-        void updateAllAverage() {
-            for (int i = 0; i < weights.length; i++)
-                updateAverageForIndex(i);
-        }
-
-        void updateAverageForIndex(int i) {
-            ensureCapacity(i);
-            if (lastUpdateIteration[i] != 0)
-                avgWeights[i] += weights[i] * (currentIteration - lastUpdateIteration[i]);
-            lastUpdateIteration[i] = currentIteration;
-        }
-
-        private void ensureCapacity(int index) {
-            if (index >= weights.length)
-                expand();
-        }
-
-        /**
-         * Increase array size to accommodate individual features
-         */
-        private void expand() {
-            int newLength = Math.max((int) Math.ceil(weights.length * ARRAY_INCREMENT_FACTOR), featureIndex.size());
-            weights = Arrays.copyOf(weights, newLength);
-            avgWeights = Arrays.copyOf(avgWeights, newLength);
-            lastUpdateIteration = Arrays.copyOf(lastUpdateIteration, newLength);
-        }
-
-        void update(Set<Integer> exampleFeatureIndices, double weight) {
-            if (autoUpdateWeights)
-                updateAverage(exampleFeatureIndices);
-
-            for (int i : exampleFeatureIndices) {
-                ensureCapacity(i);
-                weights[i] += weight;
-            }
-        }
-
-        double trainingDotProduct(Set<Integer> featureCounts) {
-            double dotProd = 0;
-            for (int i : featureCounts)
-                if (i < weights.length)
-                    dotProd += weights[i];
-            return dotProd;
-        }
-
-        double avgDotProduct(Set<Integer> featureCounts) {
-            double dotProd = 0;
-            for (int i : featureCounts)
-                if (i < avgWeights.length)
-                    dotProd += avgWeights[i];
-            return dotProd;
-        }
-
-        private void writeObject(ObjectOutputStream oos) throws IOException {
-            oos.defaultWriteObject();
-            oos.writeInt(weights.length);
-            for (int i = 0; i < weights.length; i++) {
-                oos.writeDouble(weights[i]);
-                oos.writeDouble(avgWeights[i]);
-            }
-        }
-
-        private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
-            ois.defaultReadObject();
-            int length = ois.readInt();
-
-            currentIteration = 1;
-            weights = new double[length];
-            avgWeights = new double[length];
-            lastUpdateIteration = new int[length];
-
-            for (int i = 0; i < length; i++) {
-                weights[i] = ois.readDouble();
-                avgWeights[i] = ois.readDouble();
-                lastUpdateIteration[i] = 1;
-            }
-
-        }
-    }
-
-    private Map<String, LabelWeights> zWeights = new HashMap<String, LabelWeights>();
+    /*
+    Scratch space for sequential training, reused for every example so that an update allocates nothing.
+    Training isn't thread-safe, and the Hogwild trainer keeps its own per thread.
+     */
+    private transient FeatureVector trainingFeatures;
+    private transient double[] trainingScoreBuffer;
 
-    private Index<String> featureIndex = new HashIndex<String>();
+    /*
+    Scoring settings, kept here rather than on the weight matrix so that they outlive the matrices
+    built by training, resetting, restoring and loading.
+     */
+    private transient ScoringKernel scoringKernel;
+    private transient boolean prunedArgMax;
 
-    private final int epochs;
+    private transient long scoreCacheBytes;
+    private transient volatile ScoreCache scoreCache;
 
     /**
      * Creates a perceptron classifier
@@ -166,6 +86,7 @@ public class PerceptronClassifier implements Classifier, Serializable {
      */
     public PerceptronClassifier(int epochs) {
         this.epochs = epochs;
+        weights = newWeightMatrix();
     }
 
     /**
@@ -176,30 +97,89 @@ public class PerceptronClassifier implements Classifier, Serializable {
      * @param epochs            number of times to iterate over dataset
      */
     public PerceptronClassifier(Collection<String> initialFeatureSet, Collection<String> initialLabelSet, int epochs) {
-        this(epochs);
-        featureIndex.addAll(initialFeatureSet);
+        this.epochs = epochs;
+        for (String feature : initialFeatureSet)
+            featureSpace.indexOf(feature, true);
+        labelIndex.addAll(initialLabelSet);
+
+        weights = newWeightMatrix();
+    }
+
+    /**
+     * Creates a perceptron classifier that hashes features into 2^featureHashBits rows,
+     * instead of keeping an index of feature strings.
+     *
+     * @param initialLabelSet set of labels to start with
+     * @param featureHashBits number of bits of the feature hash to use (1 to 28)
+     * @param epochs          number of times to iterate over dataset
+     */
+    public PerceptronClassifier(Collection<String> initialLabelSet, int featureHashBits, int epochs) {
+        this.epochs = epochs;
+        featureSpace = new HashedFeatureSpace(featureHashBits);
+        labelIndex.addAll(initialLabelSet);
+
+        weights = newWeightMatrix();
+    }
+
+    /*
+    Frozen classifier over a feature space and weights loaded from elsewhere, such as a binary model.
+     */
+    PerceptronClassifier(FeatureSpace featureSpace, Index<String> labelIndex, WeightMatrix weights) {
+        this.featureSpace = featureSpace;
+        this.labelIndex = labelIndex;
+        this.weights = weights;
+        labelIndex.lock();
+        frozen = true;
+    }
 
-        for (String label : initialLabelSet)
-            zWeights.put(label, new LabelWeights(initialFeatureSet.size()));
+    /*
+    Copy of a classifier with its own feature space and label index, over some weights.
+     */
+    private PerceptronClassifier(PerceptronClassifier master, WeightMatrix weights) {
+        autoUpdateWeights = master.autoUpdateWeights;
+        burnInPeriod = master.burnInPeriod;
+        totalIterationCount = master.totalIterationCount;
+        epochs = master.epochs;
+        numThreads = master.numThreads;
+        scoringKernel = master.scoringKernel;
+        prunedArgMax = master.prunedArgMax;
+        featureSpace = master.featureSpace.copy();
+        labelIndex = new HashIndex<String>(master.labelIndex);
+        this.weights = weights;
+    }
+
+    private WeightMatrix newWeightMatrix() {
+        int numFeatures = featureSpace.isFixedSize() ? featureSpace.size() :
+                Math.max(featureSpace.size(), MIN_NUM_FEATURES);
+        return new WeightMatrix(numFeatures, labelIndex.size());
     }
 
     /**
-     * Trains a new classifier based on a dataset
+     * Trains a new classifier based on a dataset. Unless features are hashed,
+     * the dataset's feature index becomes this classifier's feature index.
+     * Labels keep their ids, and the dataset's new labels are added after them.
      *
      * @param dataset to be trained on
      */
     @Override
     public void train(Dataset<String, String> dataset) {
-        featureIndex = dataset.featureIndex();
-        int numFeatures = featureIndex.size();
+        checkNotFrozen();
+        if (!featureSpace.isFixedSize())
+            featureSpace = new ConcurrentFeatureSpace(dataset.featureIndex());
+        labelIndex.addAll(dataset.labelIndex().objectsList());
 
-        zWeights = new HashMap<String, LabelWeights>();
-        for (String label : dataset.labelIndex())
-            zWeights.put(label, new LabelWeights(numFeatures));
+        weights = newWeightMatrix();
 
         System.err.println("Running perceptronClassifier on " + dataset.size() + " data");
         long startTime = System.currentTimeMillis();
 
+        if (numThreads > 1) {
+            parallelTrain(dataset);
+            System.err.println("Elapsed time: " + (System.currentTimeMillis() - startTime) / 1000 + "s");
+            updateAverageWeights();
+            return;
+        }
+
         for (int t = 0; t < epochs; t++) {
             dataset.randomize(t);
 
@@ -218,6 +198,51 @@ public class PerceptronClassifier implements Classifier, Serializable {
         updateAverageWeights();
     }
 
+    private void parallelTrain(final Dataset<String, String> dataset) {
+        final FeatureVector[] data = new FeatureVector[dataset.size()];
+        final int[] labels = new int[dataset.size()];
+
+        //the feature space is either concurrent or hashed, so the data can be indexed on every thread
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<?>> shards = new ArrayList<Future<?>>();
+            int shardSize = (data.length + numThreads - 1) / numThreads;
+            for (int start = 0; start < data.length; start += shardSize) {
+                final int from = start;
+                final int to = Math.min(start + shardSize, data.length);
+                shards.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = from; i < to; i++) {
+                            Datum<String, String> datum = dataset.getDatum(i);
+                            data[i] = featuresOf(datum);
+                            labels[i] = labelIndex.indexOf(datum.label());
+                        }
+                    }
+                }));
+            }
+            for (Future<?> shard : shards)
+                shard.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while indexing features", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Indexing thread failed", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        weights.ensureFeatureCapacity(featureSpace.size());
+        weights.densify();
+
+        HogwildTrainer trainer = new HogwildTrainer(weights, data, labels,
+                numThreads, burnInPeriod, totalIterationCount);
+        trainer.train(epochs);
+
+        totalIterationCount = trainer.exampleCount();
+        if (totalIterationCount > burnInPeriod)
+            autoUpdateWeights = true;
+    }
+
     /**
      * Trains the classifier based on a dataset with gold/predicted labels for each datum.
      * For use with online learning. Since data in datasets can only contain one label,
@@ -250,7 +275,18 @@ public class PerceptronClassifier implements Classifier, Serializable {
         String predictedLabel = unformattedLabel.substring(0, separatorPos);
         String goldLabel = unformattedLabel.substring(separatorPos + 1);
 
-        train(featuresOf(datum), goldLabel, predictedLabel);
+        train(featuresOf(datum, trainingFeatures()), goldLabel, predictedLabel);
+    }
+
+    /**
+     * Trains on a single feature vector, where the predicted label has already been determined.
+     *
+     * @param features       normalized feature vector of the datum
+     * @param goldLabel      the gold label
+     * @param predictedLabel the predicted label
+     */
+    public void manualTrain(FeatureVector features, String goldLabel, String predictedLabel) {
+        train(features, goldLabel, predictedLabel);
     }
 
     /**
@@ -265,63 +301,158 @@ public class PerceptronClassifier implements Classifier, Serializable {
         return predictedLabel + SPACER + goldLabel;
     }
 
-    private void train(Set<Integer> featureIndices, String goldLabel, String predictedLabel) {
+    private void train(FeatureVector featureIndices, String goldLabel, String predictedLabel) {
+        checkNotFrozen();
 
-        if (!zWeights.containsKey(goldLabel))
-            zWeights.put(goldLabel, new LabelWeights(featureIndex.size()));
+        int gold = labelIndexOf(goldLabel, true);
+        update(featureIndices, gold, labelIndex.indexOf(predictedLabel));
+    }
 
-        if (!goldLabel.equals(predictedLabel)) {
-            if (zWeights.containsKey(predictedLabel))
-                zWeights.get(predictedLabel).update(featureIndices, -1.0);
-            zWeights.get(goldLabel).update(featureIndices, 1.0);
+    /**
+     * Trains on a single example, where the predicted label has already been determined.
+     * For use with online learning.
+     *
+     * @param features  indices of the features of the example, as assigned by featuresOf()
+     * @param gold      id of the gold label
+     * @param predicted id of the predicted label, or -1 if no known label was predicted
+     */
+    public void update(int[] features, int gold, int predicted) {
+        FeatureVector vector = trainingFeatures();
+        vector.clear();
+        for (int feature : features)
+            vector.add(feature);
+        update(vector.normalize(), gold, predicted);
+    }
+
+    /**
+     * Trains on a single example, where the predicted label has already been determined.
+     * For use with online learning.
+     *
+     * @param features  normalized feature vector of the example
+     * @param gold      id of the gold label
+     * @param predicted id of the predicted label, or -1 if no known label was predicted
+     */
+    public void update(FeatureVector features, int gold, int predicted) {
+        checkNotFrozen();
+        if (gold < 0 || gold >= weights.numLabels())
+            throw new IllegalArgumentException("Unknown gold label id " + gold);
+
+        if (gold != predicted) {
+            weights.ensureFeatureCapacity(featureSpace.size());
+            if (predicted >= 0)
+                weights.update(features, predicted, -1.0, autoUpdateWeights);
+            weights.update(features, gold, 1.0, autoUpdateWeights);
         }
 
         if (totalIterationCount++ >= burnInPeriod)
             autoUpdateWeights = true;
 
-        for (LabelWeights zw : zWeights.values())
-            if (autoUpdateWeights)
-                zw.incrementCurrentIteration();
+        if (autoUpdateWeights)
+            weights.incrementCurrentIteration();
     }
 
     private void train(Datum<String, String> datum) {
-        Set<Integer> exampleFeatureIndices = featuresOf(datum);
+        FeatureVector exampleFeatureIndices = featuresOf(datum, trainingFeatures());
+
+        double[] dotProducts = trainingScoreBuffer();
+        weights.runningAverageScores(exampleFeatureIndices, dotProducts);
+        int argMax = argMax(dotProducts);
 
-        String predictedLabel = argMaxDotProduct(exampleFeatureIndices, false);
+        String predictedLabel = argMax < 0 ? "" : labelIndex.get(argMax);
         String goldLabel = datum.label();
 
         train(exampleFeatureIndices, goldLabel, predictedLabel);
     }
 
+    private FeatureVector trainingFeatures() {
+        if (trainingFeatures == null)
+            trainingFeatures = new FeatureVector();
+        return trainingFeatures;
+    }
+
     /*
-    Given a datum, returns a set of integers that are the array indices for
+    Scores buffer of exactly numLabels elements, which is reallocated only when a label is added.
+     */
+    private double[] trainingScoreBuffer() {
+        if (trainingScoreBuffer == null || trainingScoreBuffer.length != weights.numLabels())
+            trainingScoreBuffer = new double[weights.numLabels()];
+        return trainingScoreBuffer;
+    }
+
+    /*
+    Given a datum, returns a feature vector of the array indices for
     the features in that datum.
      */
-    private Set<Integer> featuresOf(Datum<String, String> datum) {
-        Set<Integer> featureIndices = new HashSet<Integer>();
+    private FeatureVector featuresOf(Datum<String, String> datum) {
+        return featuresOf(datum, new FeatureVector());
+    }
+
+    /**
+     * Converts the features of a datum into a feature vector, indexing any new features.
+     * If this classifier is frozen, features that haven't been indexed are dropped instead.
+     *
+     * @param datum datum to be examined
+     * @param reuse feature vector to fill, whose previous contents are discarded
+     * @return normalized feature vector for that datum (reuse)
+     */
+    public FeatureVector featuresOf(Datum<String, String> datum, FeatureVector reuse) {
+        reuse.clear();
         for (String feature : datum.asFeatures()) {
-            int index = featureIndex.indexOf(feature, true);
-            featureIndices.add(index);
+            int index = featureSpace.indexOf(feature, !frozen);
+            if (index >= 0)
+                reuse.add(index);
         }
-        return featureIndices;
+        return reuse.normalize();
     }
 
     /**
      * Returns the label that gives the greatest score for some features
      */
-    private String argMaxDotProduct(Set<Integer> exampleFeatureIndices, boolean training) {
+    private String argMaxDotProduct(FeatureVector exampleFeatureIndices, boolean training) {
+        int argMax = bestLabelOf(exampleFeatureIndices, training);
+        return argMax < 0 ? "" : labelIndex.get(argMax);
+    }
+
+    /**
+     * Returns the id of the label with the highest score for a feature vector. With pruning
+     * enabled by setPrunedArgMax(), labels are abandoned as soon as they can no longer win.
+     *
+     * @param features normalized feature vector to be examined
+     * @param training whether or not to use training weights
+     * @return id of the best label, or -1 if there are no labels
+     */
+    public int bestLabelOf(FeatureVector features, boolean training) {
+        if (!training && scoreCache == null)
+            return weights.argMax(features, prunedArgMax, scoringKernel());
+
+        double[] dotProducts = new double[weights.numLabels()];
+        scores(features, training, dotProducts);
+        return argMax(dotProducts);
+    }
+
+    /*
+    Scores every label for a feature vector, going through the score cache, if there is one,
+    for average weights.
+     */
+    private void scores(FeatureVector features, boolean training, double[] scores) {
+        ScoreCache cache = scoreCache;
+        if (training || cache == null) {
+            weights.scores(features, training, scoringKernel(), scores);
+        } else if (!cache.get(features, scores)) {
+            weights.scores(features, false, scoringKernel(), scores);
+            cache.put(features, scores);
+        }
+    }
+
+    static int argMax(double[] dotProducts) {
         double maxDotProduct = Double.NEGATIVE_INFINITY;
-        String argMax = "";
-
-        for (Map.Entry<String, LabelWeights> entry : zWeights.entrySet()) {
-            double dotProduct = training ? entry.getValue().trainingDotProduct(exampleFeatureIndices) :
-                    entry.getValue().avgDotProduct(exampleFeatureIndices);
-            if (dotProduct > maxDotProduct) {
-                maxDotProduct = dotProduct;
-                argMax = entry.getKey();
+        int argMax = -1;
+        for (int label = 0; label < dotProducts.length; label++) {
+            if (dotProducts[label] > maxDotProduct) {
+                maxDotProduct = dotProducts[label];
+                argMax = label;
             }
         }
-
         return argMax;
     }
 
@@ -346,16 +477,92 @@ public class PerceptronClassifier implements Classifier, Serializable {
         return scoresOf(datum, true);
     }
 
-    private Counter<String> scoresOf(Datum<String, String> datum, boolean training) {
+    /**
+     * Returns the scores for each label of a feature vector
+     *
+     * @param features normalized feature vector to be examined
+     * @param training whether or not to use training weights
+     * @return Counter with scores of each label
+     */
+    public Counter<String> scoresOf(FeatureVector features, boolean training) {
+        double[] dotProducts = new double[weights.numLabels()];
+        scores(features, training, dotProducts);
+
         Counter<String> scores = new ClassicCounter<String>();
-        Set<Integer> featureCounts = featuresOf(datum);
-        for (Map.Entry<String, LabelWeights> entry : zWeights.entrySet())
-            scores.incrementCount(entry.getKey(),
-                    training ? entry.getValue().trainingDotProduct(featureCounts) :
-                            entry.getValue().avgDotProduct(featureCounts));
+        for (int label = 0; label < dotProducts.length; label++)
+            scores.incrementCount(labelIndex.get(label), dotProducts[label]);
         return scores;
     }
 
+    /**
+     * Scores every label for some datum, by label id, according to average weights
+     *
+     * @param datum  datum to be examined
+     * @param scores vector to write the scores of the labels to
+     */
+    @Override
+    public void scoresOf(Datum<String, String> datum, ScoreVector scores) {
+        scoresOf(featuresOf(datum), false, scores);
+    }
+
+    /**
+     * Scores every label for some datum, by label id
+     *
+     * @param datum    datum to be examined
+     * @param training whether or not to use training weights
+     * @param scores   vector to write the scores of the labels to
+     */
+    public void scoresOf(Datum<String, String> datum, boolean training, ScoreVector scores) {
+        scoresOf(featuresOf(datum), training, scores);
+    }
+
+    /**
+     * Scores every label for a feature vector, by label id
+     *
+     * @param features normalized feature vector to be examined
+     * @param training whether or not to use training weights
+     * @param scores   vector to write the scores of the labels to
+     */
+    public void scoresOf(FeatureVector features, boolean training, ScoreVector scores) {
+        scores(features, training, scores.prepare(weights.numLabels()));
+    }
+
+    @Override
+    public int numLabels() {
+        return labelIndex.size();
+    }
+
+    @Override
+    public int labelIndexOf(String label) {
+        return labelIndex.indexOf(label);
+    }
+
+    /**
+     * Returns the id of a label, optionally assigning it one if it doesn't have one yet.
+     *
+     * @param label label to look up
+     * @param add   whether or not to add the label if it is unknown
+     * @return id of that label, or -1 if the label is unknown and wasn't added
+     */
+    public int labelIndexOf(String label, boolean add) {
+        int labelId = labelIndex.indexOf(label);
+        if (labelId < 0 && add) {
+            checkNotFrozen();
+            labelIndex.add(label);
+            labelId = weights.addLabel();
+        }
+        return labelId;
+    }
+
+    @Override
+    public String labelOf(int labelId) {
+        return labelIndex.get(labelId);
+    }
+
+    private Counter<String> scoresOf(Datum<String, String> datum, boolean training) {
+        return scoresOf(featuresOf(datum), training);
+    }
+
     /**
      * Updates a counter to reflect the correct scores for a datum.
      *
@@ -364,11 +571,25 @@ public class PerceptronClassifier implements Classifier, Serializable {
      * @param training whether or not this is in training mode
      */
     public void updateCounterScores(Datum<String, String> datum, Counter<String> scores, boolean training) {
-        Set<Integer> featureCounts = featuresOf(datum);
-        for (String label : scores.keySet())
-            if (zWeights.containsKey(label))
-                scores.setCount(label, training ? zWeights.get(label).trainingDotProduct(featureCounts) :
-                        zWeights.get(label).avgDotProduct(featureCounts));
+        updateCounterScores(featuresOf(datum), scores, training);
+    }
+
+    /**
+     * Updates a counter to reflect the correct scores for a feature vector.
+     *
+     * @param featureCounts normalized feature vector to consider
+     * @param scores        Counter to update--does not add additional labels
+     * @param training      whether or not this is in training mode
+     */
+    public void updateCounterScores(FeatureVector featureCounts, Counter<String> scores, boolean training) {
+        double[] dotProducts = new double[weights.numLabels()];
+        scores(featureCounts, training, dotProducts);
+
+        for (String label : scores.keySet()) {
+            int labelId = labelIndex.indexOf(label);
+            if (labelId >= 0)
+                scores.setCount(label, dotProducts[labelId]);
+        }
     }
 
     /**
@@ -382,6 +603,17 @@ public class PerceptronClassifier implements Classifier, Serializable {
         return argMaxDotProduct(featuresOf(datum), false);
     }
 
+    /**
+     * Gives the label that is most likely to represent some feature vector
+     *
+     * @param features normalized feature vector to be examined
+     * @param training whether or not to use training weights
+     * @return label with highest score
+     */
+    public String classOf(FeatureVector features, boolean training) {
+        return argMaxDotProduct(features, training);
+    }
+
     /**
      * Gives the label that is most likely to represent some datum,
      * according to training weights
@@ -397,16 +629,291 @@ public class PerceptronClassifier implements Classifier, Serializable {
      * Clears the weights
      */
     public void reset() {
-        for (String label : zWeights.keySet())
-            zWeights.put(label, new LabelWeights(featureIndex.size()));
+        checkNotFrozen();
+        weights = newWeightMatrix();
+    }
+
+    /**
+     * Sets whether or not, once this classifier is frozen, finding only the best label abandons
+     * labels as soon as they can no longer win, rather than scoring every label in full. The best
+     * label is the same either way. Pruning only pays when a few labels, such as NIL for argument
+     * candidates, dominate the others; it is off by default.
+     *
+     * @param prunedArgMax whether or not to prune
+     */
+    public void setPrunedArgMax(boolean prunedArgMax) {
+        this.prunedArgMax = prunedArgMax;
+    }
+
+    /**
+     * Sets the inner loop used to score labels once this classifier is frozen,
+     * instead of the default from ScoringKernel.defaultKernel().
+     *
+     * @param kernel scoring kernel
+     */
+    public void setScoringKernel(ScoringKernel kernel) {
+        scoringKernel = kernel;
+    }
+
+    private ScoringKernel scoringKernel() {
+        return scoringKernel != null ? scoringKernel : ScoringKernel.defaultKernel();
+    }
+
+    /**
+     * Sets aside memory for caching the scores of feature vectors once this classifier is frozen,
+     * so that scoring the same features again, as when an argument candidate is rescored without
+     * any of its features having changed, costs a single lookup. Scores are cached per distinct
+     * feature vector, and those not used recently are evicted once the cache is full. Replaces
+     * any previous cache.
+     *
+     * @param maxBytes approximate limit on the memory used by the cache, or 0 for no cache (the default)
+     */
+    public void setScoreCache(long maxBytes) {
+        if (maxBytes < 0)
+            throw new IllegalArgumentException("Cache size must not be negative");
+        scoreCacheBytes = maxBytes;
+        scoreCache = frozen && maxBytes > 0 ? new ScoreCache(weights.numLabels(), maxBytes) : null;
+    }
+
+    /**
+     * Number of times scores were found in the score cache since it was set up.
+     *
+     * @return number of cache hits
+     */
+    public long scoreCacheHits() {
+        ScoreCache cache = scoreCache;
+        return cache == null ? 0 : cache.hits();
+    }
+
+    /**
+     * Number of times scores were looked up in the score cache but had to be computed.
+     *
+     * @return number of cache misses
+     */
+    public long scoreCacheMisses() {
+        ScoreCache cache = scoreCache;
+        return cache == null ? 0 : cache.misses();
     }
 
     /**
      * Updates all the average weights for accurate results when classifying.
      */
     public void updateAverageWeights() {
-        for (LabelWeights l : zWeights.values())
-            l.updateAllAverage();
+        weights.updateAllAverage(featureSpace.size());
+    }
+
+    /**
+     * Sets the number of threads used by train(Dataset). With more than one thread, the threads
+     * train on disjoint shards of each epoch and update the weights without locking, so results
+     * are not reproducible from run to run.
+     *
+     * @param numThreads number of training threads (1 for deterministic, single-threaded training)
+     */
+    public void setNumThreads(int numThreads) {
+        if (numThreads < 1)
+            throw new IllegalArgumentException("Number of threads must be positive");
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Returns a copy of this classifier for training on one shard of the data, for iterative
+     * parameter mixing. The copy starts from the current weights, shares nothing with this
+     * classifier that training modifies, and can be trained in another thread. Once trained,
+     * the copies are combined back into this classifier with mix().
+     *
+     * @return copy of this classifier
+     */
+    public PerceptronClassifier shardCopy() {
+        checkNotFrozen();
+        return new PerceptronClassifier(this, weights.shardCopy());
+    }
+
+    /**
+     * Returns a copy of the whole training state of this classifier, which shares nothing with this
+     * classifier that training modifies. Training the copy goes exactly as training this classifier
+     * would, and this classifier can be set back to the copy with restore().
+     *
+     * @return copy of this classifier
+     */
+    public PerceptronClassifier snapshot() {
+        checkNotFrozen();
+        return new PerceptronClassifier(this, weights.copy());
+    }
+
+    /**
+     * Returns a frozen copy of this classifier, with the average weights as of the current iteration,
+     * which only looks features up, so that evaluating it adds nothing to this classifier's feature space.
+     * This classifier is not modified, and a frozen classifier is its own frozen copy.
+     *
+     * @return frozen copy of this classifier
+     */
+    public PerceptronClassifier frozenCopy() {
+        if (frozen)
+            return this;
+
+        int[] rows = new int[Math.min(featureSpace.size(), weights.featureCapacity())];
+        for (int f = 0; f < rows.length; f++)
+            rows[f] = f;
+        FeatureSpace frozenFeatureSpace = featureSpace.copy();
+        frozenFeatureSpace.lock();
+
+        PerceptronClassifier copy = new PerceptronClassifier(frozenFeatureSpace, new HashIndex<String>(labelIndex),
+                weights.frozenRows(rows));
+        copy.scoringKernel = scoringKernel;
+        copy.prunedArgMax = prunedArgMax;
+        return copy;
+    }
+
+    /**
+     * Sets this classifier back to the state of a snapshot made with snapshot(),
+     * which is left as it is and can be restored again.
+     *
+     * @param snapshot snapshot of this classifier
+     */
+    public void restore(PerceptronClassifier snapshot) {
+        checkNotFrozen();
+        autoUpdateWeights = snapshot.autoUpdateWeights;
+        burnInPeriod = snapshot.burnInPeriod;
+        totalIterationCount = snapshot.totalIterationCount;
+        featureSpace = snapshot.featureSpace.copy();
+        labelIndex = new HashIndex<String>(snapshot.labelIndex);
+        weights = snapshot.weights.copy();
+    }
+
+    /**
+     * Sets the weights of this classifier to the average of the weights of its shard copies.
+     * Features and labels the copies encountered are added to this classifier, and the
+     * average weights take into account every iteration of every copy.
+     *
+     * @param shards copies made with shardCopy() since this classifier was last modified
+     */
+    public void mix(List<PerceptronClassifier> shards) {
+        checkNotFrozen();
+        if (shards.isEmpty())
+            return;
+
+        List<WeightMatrix> shardWeights = new ArrayList<WeightMatrix>();
+        List<int[]> featureRows = new ArrayList<int[]>();
+        List<int[]> labelColumns = new ArrayList<int[]>();
+        int iterationCount = totalIterationCount;
+
+        for (PerceptronClassifier shard : shards) {
+            featureRows.add(shard.featureSpace.rowsIn(featureSpace));
+
+            int[] columns = new int[shard.labelIndex.size()];
+            for (int l = 0; l < columns.length; l++) {
+                String label = shard.labelIndex.get(l);
+                columns[l] = labelIndex.indexOf(label);
+                if (columns[l] < 0) {
+                    labelIndex.add(label);
+                    columns[l] = weights.addLabel();
+                }
+            }
+            labelColumns.add(columns);
+
+            shardWeights.add(shard.weights);
+            iterationCount += shard.totalIterationCount - totalIterationCount;
+        }
+
+        weights.ensureFeatureCapacity(featureSpace.size());
+        weights.mix(shardWeights, featureRows, labelColumns);
+
+        totalIterationCount = iterationCount;
+        if (totalIterationCount > burnInPeriod)
+            autoUpdateWeights = true;
+    }
+
+    /**
+     * Freezes this classifier for inference. The average weights are finalized, the training weights
+     * are discarded, and the feature and label indices are locked. Afterwards, unknown features
+     * are ignored, training methods throw an IllegalStateException, and only average weights
+     * can be used for classification. This cannot be undone.
+     */
+    public void freeze() {
+        if (frozen)
+            return;
+
+        weights.updateAllAverage(featureSpace.size());
+        weights.freeze(featureSpace.size());
+        featureSpace.lock();
+        labelIndex.lock();
+        frozen = true;
+        setScoreCache(scoreCacheBytes);
+    }
+
+    /**
+     * Returns a compacted copy of this classifier for inference, which is frozen. Features whose
+     * average weights are all smaller in magnitude than a threshold (or zero) are dropped, and the
+     * remaining features are renumbered densely. The number of average weights stored before and after
+     * is printed. Labels that are still sparse while training become dense in the copy, so a copy of a
+     * classifier whose labels are mostly sparse can store more weights than the original.
+     * This classifier is not modified; the copy's average weights are computed as of its current iteration.
+     * <p/>
+     * Hashed features can't be renumbered, as their rows are fixed by the hash, so for a hashed classifier
+     * the copy keeps every row and the rows of dropped features are zeroed instead. Such a copy is no
+     * smaller in memory, but is when saved in the sparse layout of BinaryModel.
+     *
+     * @param threshold smallest largest-absolute-average-weight for a feature to be kept
+     * @return compacted, frozen copy of this classifier
+     */
+    public PerceptronClassifier compactedCopy(double threshold) {
+        int numFeatures = Math.min(featureSpace.size(), weights.featureCapacity());
+        boolean hashed = featureSpace instanceof HashedFeatureSpace;
+
+        int[] rows = new int[numFeatures];
+        int numKept = 0;
+        for (int f = 0; f < numFeatures; f++) {
+            double max = weights.maxAbsAverageWeight(f);
+            boolean kept = max > 0 && max >= threshold;
+            if (hashed)
+                rows[f] = kept ? f : -1;
+            else if (kept)
+                rows[numKept] = f;
+            if (kept)
+                numKept++;
+        }
+
+        FeatureSpace compactedSpace;
+        WeightMatrix compactedWeights;
+        if (hashed) {
+            compactedSpace = featureSpace;
+            compactedWeights = weights.frozenRows(rows);
+        } else {
+            Index<String> featureIndex = new HashIndex<String>();
+            for (int i = 0; i < numKept; i++)
+                featureIndex.add(featureSpace.featureAt(rows[i]));
+            featureIndex.lock();
+            compactedSpace = new IndexedFeatureSpace(featureIndex);
+            compactedWeights = weights.frozenRows(Arrays.copyOf(rows, numKept));
+        }
+
+        PerceptronClassifier copy = new PerceptronClassifier(compactedSpace,
+                new HashIndex<String>(labelIndex), compactedWeights);
+        copy.epochs = epochs;
+        copy.burnInPeriod = burnInPeriod;
+        copy.totalIterationCount = totalIterationCount;
+        copy.autoUpdateWeights = autoUpdateWeights;
+        copy.scoringKernel = scoringKernel;
+        copy.prunedArgMax = prunedArgMax;
+
+        System.err.println("Compacted classifier from " + featureSpace.size() + " to " + numKept +
+                " features, " + 8 * weights.numStoredWeights(featureSpace.size()) / 1024 + "KB to " +
+                8 * compactedWeights.numStoredWeights(compactedSpace.size()) / 1024 + "KB of average weights");
+        return copy;
+    }
+
+    /**
+     * Returns whether or not this classifier has been frozen for inference.
+     *
+     * @return true if frozen
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen)
+            throw new IllegalStateException("Classifier is frozen for inference");
     }
 
     /**
@@ -424,6 +931,81 @@ public class PerceptronClassifier implements Classifier, Serializable {
      * @return list of labels
      */
     public Collection<String> indexedLabels() {
-        return Collections.unmodifiableSet(zWeights.keySet());
+        return Collections.unmodifiableList(labelIndex.objectsList());
+    }
+
+    FeatureSpace featureSpace() {
+        return featureSpace;
+    }
+
+    Index<String> labelIndex() {
+        return labelIndex;
+    }
+
+    WeightMatrix weights() {
+        return weights;
+    }
+
+    private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = ois.readFields();
+
+        autoUpdateWeights = fields.get("autoUpdateWeights", false);
+        burnInPeriod = fields.get("burnInPeriod", 0);
+        totalIterationCount = fields.get("totalIterationCount", 0);
+        epochs = fields.get("epochs", 0);
+        numThreads = fields.get("numThreads", 1);
+        frozen = fields.get("frozen", false);
+        featureSpace = (FeatureSpace) fields.get("featureSpace", null);
+        labelIndex = uncheckedCast(fields.get("labelIndex", null));
+        weights = (WeightMatrix) fields.get("weights", null);
+
+        if (featureSpace == null) { //model saved before feature spaces were introduced
+            Index<String> featureIndex = uncheckedCast(fields.get("featureIndex", null));
+            featureSpace = new IndexedFeatureSpace(featureIndex);
+        }
+
+        if (weights == null) {      //model saved before the weight matrix was introduced
+            Map<String, LabelWeights> zWeights = uncheckedCast(fields.get("zWeights", null));
+            labelIndex = new HashIndex<String>();
+            labelIndex.addAll(zWeights.keySet());
+            weights = newWeightMatrix();
+
+            for (Map.Entry<String, LabelWeights> entry : zWeights.entrySet()) {
+                int label = labelIndex.indexOf(entry.getKey());
+                LabelWeights l = entry.getValue();
+                for (int i = 0; i < l.weights.length; i++)
+                    if (l.weights[i] != 0 || l.avgWeights[i] != 0)
+                        weights.set(i, label, l.weights[i], l.avgWeights[i]);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T uncheckedCast(Object o) {
+        return (T) o;
+    }
+
+    /**
+     * Per-label weights, as serialized by earlier versions of this classifier.
+     * Only kept so that those models can still be loaded.
+     */
+    private class LabelWeights implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private transient double[] weights;
+        private transient double[] avgWeights;
+
+        private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+            ois.defaultReadObject();
+            int length = ois.readInt();
+
+            weights = new double[length];
+            avgWeights = new double[length];
+
+            for (int i = 0; i < length; i++) {
+                weights[i] = ois.readDouble();
+                avgWeights[i] = ois.readDouble();
+            }
+        }
     }
 }
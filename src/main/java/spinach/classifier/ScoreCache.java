@@ -0,0 +1,193 @@
+package spinach.classifier;
+
+/**
+ * A bounded cache of the scores of feature vectors, for a frozen classifier whose weights never change.
+ * <p/>
+ * Entries are keyed by the 64-bit fingerprint of a normalized feature vector together with its number of
+ * features, so two different vectors share an entry only if both of those collide. The cache is split into
+ * segments by fingerprint, each locked separately, so that threads sharing a classifier rarely wait on each
+ * other. Each segment holds a fixed number of entries and, once full, evicts with the CLOCK algorithm:
+ * the hand skips over and clears entries that have been read since it last passed them.
+ *
+ * @author Calvin Huang
+ */
+class ScoreCache {
+
+    private static final int SEGMENT_BITS = 4;
+    private static final int MIN_SEGMENT_CAPACITY = 16;
+
+    //bytes per entry besides its scores: fingerprint, size, reference bit, and two index slots
+    private static final int ENTRY_OVERHEAD = 8 + 4 + 1 + 2 * 4;
+
+    private final int numLabels;
+    private final Segment[] segments;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param numLabels number of scores per entry
+     * @param maxBytes  approximate limit on the memory taken by the entries
+     */
+    ScoreCache(int numLabels, long maxBytes) {
+        this.numLabels = numLabels;
+        segments = new Segment[1 << SEGMENT_BITS];
+        long entries = maxBytes / (8L * numLabels + ENTRY_OVERHEAD) / segments.length;
+        int capacity = (int) Math.min(Math.max(entries, MIN_SEGMENT_CAPACITY), 1 << 24);
+        for (int i = 0; i < segments.length; i++)
+            segments[i] = new Segment(capacity, numLabels);
+    }
+
+    /**
+     * Looks up the scores of a feature vector.
+     *
+     * @param features normalized feature vector
+     * @param scores   array of at least numLabels scores to copy the cached scores to
+     * @return whether or not the scores were cached
+     */
+    boolean get(FeatureVector features, double[] scores) {
+        long fingerprint = features.fingerprint();
+        return segmentOf(fingerprint).get(fingerprint, features.size(), scores, numLabels);
+    }
+
+    /**
+     * Caches the scores of a feature vector, evicting another entry if the cache is full.
+     *
+     * @param features normalized feature vector
+     * @param scores   its scores, of which the first numLabels are cached
+     */
+    void put(FeatureVector features, double[] scores) {
+        long fingerprint = features.fingerprint();
+        segmentOf(fingerprint).put(fingerprint, features.size(), scores, numLabels);
+    }
+
+    private Segment segmentOf(long fingerprint) {
+        return segments[(int) (fingerprint >>> (64 - SEGMENT_BITS))];
+    }
+
+    /**
+     * Number of lookups that found their scores.
+     *
+     * @return number of hits
+     */
+    long hits() {
+        long hits = 0;
+        for (Segment segment : segments)
+            synchronized (segment) {
+                hits += segment.hits;
+            }
+        return hits;
+    }
+
+    /**
+     * Number of lookups that didn't find their scores.
+     *
+     * @return number of misses
+     */
+    long misses() {
+        long misses = 0;
+        for (Segment segment : segments)
+            synchronized (segment) {
+                misses += segment.misses;
+            }
+        return misses;
+    }
+
+    /*
+    Entries are kept in slots, which the CLOCK hand sweeps over. An open-addressing table with
+    linear probing maps fingerprints to slots, holding slot + 1 so that 0 marks an empty position.
+     */
+    private static class Segment {
+        final long[] fingerprints;
+        final int[] sizes;
+        final double[] scores;
+        final boolean[] referenced;
+        final int[] table;
+        int count;
+        int hand;
+        long hits;
+        long misses;
+
+        Segment(int capacity, int numLabels) {
+            fingerprints = new long[capacity];
+            sizes = new int[capacity];
+            scores = new double[capacity * numLabels];
+            referenced = new boolean[capacity];
+            table = new int[Integer.highestOneBit(capacity - 1) << 2];
+        }
+
+        synchronized boolean get(long fingerprint, int size, double[] out, int numLabels) {
+            int position = find(fingerprint, size);
+            if (position < 0) {
+                misses++;
+                return false;
+            }
+            int slot = table[position] - 1;
+            referenced[slot] = true;
+            System.arraycopy(scores, slot * numLabels, out, 0, numLabels);
+            hits++;
+            return true;
+        }
+
+        synchronized void put(long fingerprint, int size, double[] in, int numLabels) {
+            if (find(fingerprint, size) >= 0)
+                return;
+
+            int slot;
+            if (count < fingerprints.length) {
+                slot = count++;
+            } else {
+                while (referenced[hand]) {
+                    referenced[hand] = false;
+                    hand = (hand + 1) % fingerprints.length;
+                }
+                slot = hand;
+                hand = (hand + 1) % fingerprints.length;
+                remove(find(fingerprints[slot], sizes[slot]));
+            }
+
+            fingerprints[slot] = fingerprint;
+            sizes[slot] = size;
+            referenced[slot] = false;
+            System.arraycopy(in, 0, scores, slot * numLabels, numLabels);
+
+            int mask = table.length - 1;
+            int position = home(fingerprint);
+            while (table[position] != 0)
+                position = (position + 1) & mask;
+            table[position] = slot + 1;
+        }
+
+        /*
+        Position in the table of the entry for a fingerprint and size, or -1 if there is none.
+         */
+        private int find(long fingerprint, int size) {
+            int mask = table.length - 1;
+            for (int position = home(fingerprint); table[position] != 0; position = (position + 1) & mask) {
+                int slot = table[position] - 1;
+                if (fingerprints[slot] == fingerprint && sizes[slot] == size)
+                    return position;
+            }
+            return -1;
+        }
+
+        /*
+        Empties a position of the table, shifting later entries of the same run back so that
+        none of them is cut off from its home position.
+         */
+        private void remove(int position) {
+            int mask = table.length - 1;
+            for (int next = (position + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+                int home = home(fingerprints[table[next] - 1]);
+                if (((next - home) & mask) >= ((next - position) & mask)) {
+                    table[position] = table[next];
+                    position = next;
+                }
+            }
+            table[position] = 0;
+        }
+
+        private int home(long fingerprint) {
+            return (int) fingerprint & (table.length - 1);
+        }
+    }
+}
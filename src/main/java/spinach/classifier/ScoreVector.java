@@ -0,0 +1,121 @@
+package spinach.classifier;
+
+import java.util.Arrays;
+
+/**
+ * Scores of every label for a datum, indexed by label id, to be filled by a Classifier.
+ * Labels can be excluded, after which they are never chosen by argMax(); rescoring
+ * the vector keeps exclusions until it is cleared. A label can be excluded before the
+ * vector has been scored, or has grown to include it.
+ * <p/>
+ * Intended to be reused from datum to datum, so that scoring allocates nothing.
+ *
+ * @author Calvin Huang
+ */
+public class ScoreVector {
+
+    private double[] scores;
+    private boolean[] excluded;
+    private int size;
+
+    /**
+     * Creates an empty score vector.
+     */
+    public ScoreVector() {
+        this(0);
+    }
+
+    /**
+     * Creates an empty score vector with room for some number of labels.
+     *
+     * @param capacity number of labels to allocate room for
+     */
+    public ScoreVector(int capacity) {
+        scores = new double[capacity];
+        excluded = new boolean[capacity];
+    }
+
+    /**
+     * Sizes this vector for some number of labels, zeroing the scores but keeping the exclusions,
+     * and returns the array to write the scores to.
+     *
+     * @param numLabels number of labels
+     * @return array of scores, of at least numLabels elements
+     */
+    double[] prepare(int numLabels) {
+        if (numLabels > scores.length)
+            scores = new double[Math.max(numLabels, 2 * scores.length)];
+        else
+            Arrays.fill(scores, 0, numLabels, 0.0);
+        size = numLabels;
+        return scores;
+    }
+
+    /**
+     * Removes all the scores and exclusions.
+     */
+    public void clear() {
+        Arrays.fill(excluded, false);
+        size = 0;
+    }
+
+    /**
+     * Number of labels scored.
+     *
+     * @return number of labels
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the score of a label.
+     *
+     * @param label label id
+     * @return score of that label
+     */
+    public double get(int label) {
+        if (label >= size)
+            throw new IndexOutOfBoundsException("Label " + label + " of " + size);
+        return scores[label];
+    }
+
+    /**
+     * Stops a label from being chosen by argMax().
+     *
+     * @param label label id
+     */
+    public void exclude(int label) {
+        if (label >= excluded.length)
+            excluded = Arrays.copyOf(excluded, Math.max(label + 1, 2 * excluded.length));
+        excluded[label] = true;
+    }
+
+    /**
+     * Returns whether or not a label has been excluded.
+     *
+     * @param label label id
+     * @return true if excluded
+     */
+    public boolean isExcluded(int label) {
+        return label < excluded.length && excluded[label];
+    }
+
+    /**
+     * Returns the label with the highest score that hasn't been excluded.
+     * Ties go to the lowest label id.
+     *
+     * @return id of the best label, or -1 if there is none
+     */
+    public int argMax() {
+        double maxScore = Double.NEGATIVE_INFINITY;
+        int argMax = -1;
+        for (int label = 0; label < size; label++) {
+            if (!isExcluded(label) && (argMax < 0 || scores[label] > maxScore)) {
+                maxScore = scores[label];
+                argMax = label;
+            }
+        }
+        return argMax;
+    }
+}
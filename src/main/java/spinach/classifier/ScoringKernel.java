@@ -0,0 +1,83 @@
+package spinach.classifier;
+
+/**
+ * Inner loops for scoring every label of a datum against a feature-major block of weights:
+ * the rows of the datum's features are summed into one score per label.
+ * <p/>
+ * SCALAR adds one row at a time. BLOCKED adds four rows at a time, so that the scores are
+ * loaded and stored a quarter as often, and its loop over labels is simple enough for the JIT
+ * to compile into SIMD instructions. The two may round differently in the last bits.
+ * <p/>
+ * The default kernel is BLOCKED, and can be changed with the system property spinach.scoringKernel.
+ *
+ * @author Calvin Huang
+ */
+public enum ScoringKernel {
+
+    SCALAR {
+        @Override
+        void addRows(double[] weights, int stride, int[] rows, int numRows, double[] scores, int numLabels) {
+            addEachRow(weights, stride, rows, 0, numRows, scores, numLabels);
+        }
+    },
+
+    BLOCKED {
+        @Override
+        void addRows(double[] weights, int stride, int[] rows, int numRows, double[] scores, int numLabels) {
+            int j = 0;
+            for (; j + 4 <= numRows; j += 4) {
+                int a = rows[j] * stride;
+                int b = rows[j + 1] * stride;
+                int c = rows[j + 2] * stride;
+                int d = rows[j + 3] * stride;
+                for (int l = 0; l < numLabels; l++)
+                    scores[l] += (weights[a + l] + weights[b + l]) + (weights[c + l] + weights[d + l]);
+            }
+            addEachRow(weights, stride, rows, j, numRows, scores, numLabels);
+        }
+    };
+
+    private static final ScoringKernel DEFAULT = fromProperty(System.getProperty("spinach.scoringKernel"));
+
+    /**
+     * Adds some rows of a block of weights to the scores.
+     *
+     * @param weights   weights, laid out with stride slots per row
+     * @param stride    number of slots per row
+     * @param rows      rows to add, all of which must be in the block
+     * @param numRows   number of rows to add
+     * @param scores    array of at least numLabels scores to add the rows to
+     * @param numLabels number of slots of each row to add
+     */
+    abstract void addRows(double[] weights, int stride, int[] rows, int numRows, double[] scores, int numLabels);
+
+    /*
+    Adds rows[from] to rows[to - 1] one at a time.
+     */
+    private static void addEachRow(double[] weights, int stride, int[] rows, int from, int to,
+                                   double[] scores, int numLabels) {
+        for (int j = from; j < to; j++)
+            for (int slot = rows[j] * stride, l = 0; l < numLabels; slot++, l++)
+                scores[l] += weights[slot];
+    }
+
+    /**
+     * Returns the kernel used by classifiers unless they are given another one.
+     *
+     * @return default kernel
+     */
+    public static ScoringKernel defaultKernel() {
+        return DEFAULT;
+    }
+
+    private static ScoringKernel fromProperty(String name) {
+        if (name == null)
+            return BLOCKED;
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown scoring kernel " + name + ", using " + BLOCKED);
+            return BLOCKED;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package spinach.classifier;
+
+/**
+ * Weights of one label for only the features it has been updated with, for labels that are too
+ * rare to be worth a dense column of a WeightMatrix. Each feature row is mapped to its weight,
+ * accumulated updates and average weight by an open-addressing hash table with linear probing.
+ * <p/>
+ * Not safe for concurrent modification: inserting a feature may lay the table out again.
+ *
+ * @author Calvin Huang
+ */
+class SparseColumn {
+
+    private static final int MIN_CAPACITY = 16;
+
+    /*
+    keys[slot] is the feature row stored in that slot plus one, or 0 if the slot is empty.
+    The table is at most half full, so probes stay short.
+     */
+    private int[] keys;
+    private double[] weights;
+    private double[] accumulatedUpdates;
+    private double[] avgWeights;
+    private int size;
+
+    /**
+     * Creates an empty column.
+     */
+    SparseColumn() {
+        allocate(MIN_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        weights = new double[capacity];
+        accumulatedUpdates = new double[capacity];
+        avgWeights = new double[capacity];
+    }
+
+    /**
+     * Returns a copy of the current weights of this column, with an empty update history.
+     *
+     * @return copy of this column
+     */
+    SparseColumn shardCopy() {
+        SparseColumn copy = new SparseColumn();
+        copy.keys = keys.clone();
+        copy.weights = weights.clone();
+        copy.accumulatedUpdates = new double[keys.length];
+        copy.avgWeights = new double[keys.length];
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * Returns a copy of this column, update history included.
+     *
+     * @return copy of this column
+     */
+    SparseColumn copy() {
+        SparseColumn copy = shardCopy();
+        copy.accumulatedUpdates = accumulatedUpdates.clone();
+        copy.avgWeights = avgWeights.clone();
+        return copy;
+    }
+
+    /**
+     * Number of features stored.
+     *
+     * @return number of features
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Number of slots in the table, some of which may be empty.
+     *
+     * @return number of slots
+     */
+    int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * Returns the feature row stored in a slot.
+     *
+     * @param slot slot of the table
+     * @return feature row, or -1 if the slot is empty
+     */
+    int featureAt(int slot) {
+        return keys[slot] - 1;
+    }
+
+    double weightAt(int slot) {
+        return weights[slot];
+    }
+
+    double accumulatedUpdatesAt(int slot) {
+        return accumulatedUpdates[slot];
+    }
+
+    double averageWeightAt(int slot) {
+        return avgWeights[slot];
+    }
+
+    /**
+     * Returns the slot holding a feature.
+     *
+     * @param feature feature row
+     * @return slot of the feature, or -1 if it isn't stored
+     */
+    int slotOf(int feature) {
+        int key = feature + 1;
+        int mask = keys.length - 1;
+        for (int slot = HashUtils.mix(key) & mask; ; slot = (slot + 1) & mask) {
+            if (keys[slot] == key)
+                return slot;
+            if (keys[slot] == 0)
+                return -1;
+        }
+    }
+
+    private int insert(int feature) {
+        if (2 * (size + 1) > keys.length)
+            grow();
+
+        int key = feature + 1;
+        int mask = keys.length - 1;
+        int slot = HashUtils.mix(key) & mask;
+        while (keys[slot] != key) {
+            if (keys[slot] == 0) {
+                keys[slot] = key;
+                size++;
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        double[] oldWeights = weights;
+        double[] oldAccumulatedUpdates = accumulatedUpdates;
+        double[] oldAvgWeights = avgWeights;
+
+        allocate(2 * oldKeys.length);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == 0)
+                continue;
+            int slot = insert(oldKeys[i] - 1);
+            weights[slot] = oldWeights[i];
+            accumulatedUpdates[slot] = oldAccumulatedUpdates[i];
+            avgWeights[slot] = oldAvgWeights[i];
+        }
+    }
+
+    /**
+     * Adds to the weight and accumulated updates of a feature, storing it if needed.
+     */
+    void add(int feature, double weight, double accumulated) {
+        int slot = insert(feature);
+        weights[slot] += weight;
+        accumulatedUpdates[slot] += accumulated;
+    }
+
+    /**
+     * Sets every value of a feature, storing it if needed.
+     */
+    void set(int feature, double weight, double accumulated, double avgWeight) {
+        int slot = insert(feature);
+        weights[slot] = weight;
+        accumulatedUpdates[slot] = accumulated;
+        avgWeights[slot] = avgWeight;
+    }
+
+    /**
+     * Returns the average weight of a feature, as of the last time the averages were updated.
+     *
+     * @param feature feature row
+     * @return average weight, or 0 if the feature isn't stored
+     */
+    double averageWeight(int feature) {
+        int slot = slotOf(feature);
+        return slot < 0 ? 0 : avgWeights[slot];
+    }
+
+    /**
+     * Returns the current weight of a feature.
+     *
+     * @param feature feature row
+     * @return weight, or 0 if the feature isn't stored
+     */
+    double weight(int feature) {
+        int slot = slotOf(feature);
+        return slot < 0 ? 0 : weights[slot];
+    }
+
+    /**
+     * Returns the accumulated updates of a feature.
+     *
+     * @param feature feature row
+     * @return accumulated updates, or 0 if the feature isn't stored
+     */
+    double accumulatedUpdates(int feature) {
+        int slot = slotOf(feature);
+        return slot < 0 ? 0 : accumulatedUpdates[slot];
+    }
+
+    /**
+     * Sums the weights of some features.
+     *
+     * @param indices     feature rows
+     * @param numFeatures number of rows to use
+     * @param training    whether to sum the current weights rather than the average weights
+     * @return sum of the weights
+     */
+    double score(int[] indices, int numFeatures, boolean training) {
+        double[] w = training ? weights : avgWeights;
+        double score = 0;
+        for (int j = 0; j < numFeatures; j++) {
+            int slot = slotOf(indices[j]);
+            if (slot >= 0)
+                score += w[slot];
+        }
+        return score;
+    }
+
+    /**
+     * Sums the average weights of some features as of some iteration, computed on the fly.
+     *
+     * @param indices     feature rows
+     * @param numFeatures number of rows to use
+     * @param c           iteration to average up to
+     * @return sum of the average weights
+     */
+    double runningAverageScore(int[] indices, int numFeatures, double c) {
+        double score = 0;
+        for (int j = 0; j < numFeatures; j++) {
+            int slot = slotOf(indices[j]);
+            if (slot >= 0)
+                score += weights[slot] - accumulatedUpdates[slot] / c;
+        }
+        return score;
+    }
+
+    /**
+     * Updates the average weights of every stored feature.
+     *
+     * @param c current iteration
+     */
+    void updateAllAverage(double c) {
+        for (int slot = 0; slot < keys.length; slot++)
+            if (keys[slot] != 0)
+                avgWeights[slot] = weights[slot] - accumulatedUpdates[slot] / c;
+    }
+
+    /**
+     * Replaces the accumulated updates with the sum of the weights over every iteration,
+     * c * w - u, and zeroes the weights, for mixing.
+     *
+     * @param c current iteration
+     */
+    void toWeightSums(double c) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            accumulatedUpdates[slot] = c * weights[slot] - accumulatedUpdates[slot];
+            weights[slot] = 0;
+        }
+    }
+
+    /**
+     * Turns sums of the weights over every iteration back into accumulated updates.
+     *
+     * @param c current iteration
+     */
+    void fromWeightSums(double c) {
+        for (int slot = 0; slot < keys.length; slot++)
+            accumulatedUpdates[slot] = c * weights[slot] - accumulatedUpdates[slot];
+    }
+}
@@ -5,6 +5,10 @@ import edu.stanford.nlp.classify.LinearClassifier;
 import edu.stanford.nlp.classify.LinearClassifierFactory;
 import edu.stanford.nlp.ling.Datum;
 import edu.stanford.nlp.stats.Counter;
+import edu.stanford.nlp.util.HashIndex;
+import edu.stanford.nlp.util.Index;
+
+import java.util.Map;
 
 /**
  * Wrapper class for the Stanford LinearClassifier class to implement the Classifier interface
@@ -14,9 +18,11 @@ import edu.stanford.nlp.stats.Counter;
 public class StanfordLinearClassifier implements Classifier {
 
     private LinearClassifier<String, String> linearClassifier;
+    private final Index<String> labelIndex = new HashIndex<String>();
 
     public StanfordLinearClassifier(String modelPath) {
         linearClassifier = LinearClassifier.readClassifier(modelPath);
+        labelIndex.addAll(linearClassifier.labels());
     }
 
     @Override
@@ -29,6 +35,28 @@ public class StanfordLinearClassifier implements Classifier {
         return linearClassifier.classOf(datum);
     }
 
+    @Override
+    public void scoresOf(Datum<String, String> datum, ScoreVector scores) {
+        double[] s = scores.prepare(labelIndex.size());
+        for (Map.Entry<String, Double> entry : linearClassifier.scoresOf(datum).entrySet())
+            s[labelIndex.indexOf(entry.getKey())] = entry.getValue();
+    }
+
+    @Override
+    public int numLabels() {
+        return labelIndex.size();
+    }
+
+    @Override
+    public int labelIndexOf(String label) {
+        return labelIndex.indexOf(label);
+    }
+
+    @Override
+    public String labelOf(int labelId) {
+        return labelIndex.get(labelId);
+    }
+
     public void save(String modelPath) {
         LinearClassifier.writeClassifier(linearClassifier, modelPath);
     }
@@ -37,5 +65,6 @@ public class StanfordLinearClassifier implements Classifier {
     public void train(Dataset<String, String> dataset) {
         linearClassifier =
                 new LinearClassifierFactory<String, String>().trainClassifier(dataset);
+        labelIndex.addAll(linearClassifier.labels());
     }
 }
@@ -0,0 +1,34 @@
+package spinach.classifier;
+
+/**
+ * Read-only weights of a frozen classifier that are stored outside of a WeightMatrix's arrays,
+ * such as in a memory-mapped model file. Implementations must be safe to read from several threads.
+ *
+ * @author Calvin Huang
+ */
+interface WeightBlock {
+
+    /**
+     * Number of features that have weights; every other feature has zero weights.
+     *
+     * @return number of features
+     */
+    int numFeatures();
+
+    /**
+     * Adds the weights of a feature for every label to the scores of those labels.
+     *
+     * @param feature feature row, less than numFeatures()
+     * @param scores  scores of the labels, indexed by label id
+     */
+    void addRow(int feature, double[] scores);
+
+    /**
+     * Returns the weight of a feature for a label.
+     *
+     * @param feature feature row, less than numFeatures()
+     * @param label   label id
+     * @return weight
+     */
+    double get(int feature, int label);
+}
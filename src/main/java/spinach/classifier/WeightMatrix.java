@@ -0,0 +1,891 @@
+package spinach.classifier;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Weights for every (feature, label) pair of a multiclass perceptron, kept in one
+ * contiguous block laid out feature-major: the weights of all the labels for a feature
+ * are adjacent. Scoring every label for a datum is then a single pass over its features.
+ * <p/>
+ * Each row holds labelCapacity slots, of which the first numDenseColumns are used, so that
+ * giving a label a column does not usually require the block to be laid out again.
+ * <p/>
+ * Labels start out sparse, with their weights in a SparseColumn holding only the features they
+ * have been updated with, since rare labels only ever touch a small fraction of the features.
+ * Once a label has been updated with more than a quarter of the feature rows, it is moved to
+ * a dense column, which is both smaller and faster to score at that point.
+ * <p/>
+ * Average weights are maintained lazily: alongside the weights w, an accumulator u collects
+ * c * delta for every update made at iteration c, so that the average weight is w - u / c.
+ * An update costs O(features in the datum), and computing the averages is one pass over the
+ * live features.
+ * <p/>
+ * A matrix that isn't frozen is saved with its whole update history, so that a reloaded matrix
+ * continues training exactly as the original would have. Only the stored entries are written:
+ * the features of each sparse label, and the rows of each dense column up to its last nonzero one.
+ * <p/>
+ * Once frozen, only the average weights are kept, trimmed to the live features and labels,
+ * and the matrix can no longer be modified. A frozen matrix may also read its average weights
+ * from a WeightBlock, such as a memory-mapped model file, instead of its own arrays.
+ *
+ * @author Calvin Huang
+ */
+class WeightMatrix implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int MIN_LABEL_CAPACITY = 4;
+    private static final double ARRAY_INCREMENT_FACTOR = 2;
+    private static final double MAX_SPARSE_FILL = 0.25;
+    private static final int MIN_PRUNED_LABELS = 8;
+    private static final int PRUNING_INTERVAL = 8;
+
+    private int numLabels;
+    private boolean frozen;
+    private transient int labelCapacity;
+    private transient int featureCapacity;
+
+    /*
+    weights[feature * labelCapacity + label] is the weight of a feature for a label.
+    The average of the weights over all iterations is used during actual classification.
+     */
+    private transient double[] weights;
+    private transient double[] avgWeights;
+
+    /*
+    Iteration number is 1-indexed, and is shared by all the slots.
+    accumulatedUpdates holds, for each slot, the sum of iteration * delta over its updates.
+     */
+    private int currentIteration;
+    private transient double[] accumulatedUpdates;
+
+    /*
+    While training, columns[label] is the dense column of a label, or -1 if it is sparse, in which case
+    its weights are in sparseColumns[label]. columnLabels[column] is the label of a dense column.
+    Frozen matrices have no sparse labels, and every label is its own column.
+     */
+    private transient int numDenseColumns;
+    private transient int[] columns;
+    private transient int[] columnLabels;
+    private transient SparseColumn[] sparseColumns;
+
+    private transient WeightBlock block;
+
+    /*
+    For pruned argmax over frozen weights: the anchor label, and for each feature, how much
+    more weight the label with the largest weight has than the anchor.
+     */
+    private transient int anchorLabel;
+    private transient volatile double[] anchorGaps;
+
+    /**
+     * Creates a zeroed weight matrix.
+     *
+     * @param numFeatures number of features to allocate rows for
+     * @param numLabels   number of labels
+     */
+    WeightMatrix(int numFeatures, int numLabels) {
+        this.numLabels = numLabels;
+        allocate(Math.max(numFeatures, 1));
+    }
+
+    /**
+     * Creates a frozen matrix whose average weights are read from a weight block.
+     *
+     * @param block     average weights
+     * @param numLabels number of labels
+     */
+    WeightMatrix(WeightBlock block, int numLabels) {
+        this.numLabels = numLabels;
+        this.block = block;
+        featureCapacity = block.numFeatures();
+        labelCapacity = numLabels;
+        frozen = true;
+    }
+
+    /*
+    Frozen matrix over an array of average weights, laid out with numLabels slots per row.
+     */
+    private WeightMatrix(double[] avgWeights, int numFeatures, int numLabels) {
+        this.numLabels = numLabels;
+        this.avgWeights = avgWeights;
+        featureCapacity = numFeatures;
+        labelCapacity = numLabels;
+        frozen = true;
+    }
+
+    /*
+    Copy of the current weights of another matrix, with an empty update history.
+     */
+    private WeightMatrix(WeightMatrix source) {
+        numLabels = source.numLabels;
+        featureCapacity = source.featureCapacity;
+        labelCapacity = source.labelCapacity;
+        weights = source.weights.clone();
+        avgWeights = new double[weights.length];
+        accumulatedUpdates = new double[weights.length];
+        currentIteration = 1;
+
+        numDenseColumns = source.numDenseColumns;
+        columns = source.columns.clone();
+        columnLabels = source.columnLabels.clone();
+        sparseColumns = new SparseColumn[source.sparseColumns.length];
+        for (int label = 0; label < numLabels; label++)
+            if (source.sparseColumns[label] != null)
+                sparseColumns[label] = source.sparseColumns[label].shardCopy();
+    }
+
+    /*
+    Zeroed weights for numLabels sparse labels, with no dense columns yet.
+     */
+    private void allocate(int featureCapacity) {
+        this.featureCapacity = featureCapacity;
+        labelCapacity = 0;
+        weights = new double[0];
+        avgWeights = new double[0];
+        accumulatedUpdates = new double[0];
+        currentIteration = 1;
+
+        numDenseColumns = 0;
+        int capacity = Math.max(numLabels, MIN_LABEL_CAPACITY);
+        columns = new int[capacity];
+        columnLabels = new int[0];
+        sparseColumns = new SparseColumn[capacity];
+        for (int label = 0; label < numLabels; label++) {
+            columns[label] = -1;
+            sparseColumns[label] = new SparseColumn();
+        }
+    }
+
+    int numLabels() {
+        return numLabels;
+    }
+
+    int featureCapacity() {
+        return featureCapacity;
+    }
+
+    boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Returns the number of average weights stored for the first numFeatures features: every label of
+     * those rows once frozen, and while training, those rows of the dense columns and the features
+     * of the sparse labels.
+     *
+     * @param numFeatures number of live features
+     * @return number of stored average weights
+     */
+    long numStoredWeights(int numFeatures) {
+        long numRows = Math.min(numFeatures, featureCapacity);
+        if (frozen)
+            return numRows * numLabels;
+
+        long numWeights = numRows * numDenseColumns;
+        for (int label = 0; label < numLabels; label++)
+            if (sparseColumns[label] != null)
+                numWeights += sparseColumns[label].size();
+        return numWeights;
+    }
+
+    /**
+     * Discards the training weights and update history, keeping only the average weights
+     * for the first numFeatures features. The matrix is read-only afterwards.
+     *
+     * @param numFeatures number of live features
+     */
+    void freeze(int numFeatures) {
+        if (frozen)
+            return;
+
+        numFeatures = Math.min(numFeatures, featureCapacity);
+        double[] frozenAvgWeights = new double[numFeatures * numLabels];
+        for (int f = 0; f < numFeatures; f++)
+            for (int column = 0; column < numDenseColumns; column++)
+                frozenAvgWeights[f * numLabels + columnLabels[column]] = avgWeights[f * labelCapacity + column];
+        for (int label = 0; label < numLabels; label++) {
+            SparseColumn sparse = sparseColumns[label];
+            if (sparse == null)
+                continue;
+            for (int slot = 0; slot < sparse.capacity(); slot++) {
+                int f = sparse.featureAt(slot);
+                if (f >= 0 && f < numFeatures)
+                    frozenAvgWeights[f * numLabels + label] = sparse.averageWeightAt(slot);
+            }
+        }
+
+        avgWeights = frozenAvgWeights;
+        weights = null;
+        accumulatedUpdates = null;
+        columns = null;
+        columnLabels = null;
+        sparseColumns = null;
+        featureCapacity = numFeatures;
+        labelCapacity = numLabels;
+        frozen = true;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen)
+            throw new IllegalStateException("Weights are frozen");
+    }
+
+    /**
+     * Adds a new label, with zero weights. It starts out sparse.
+     *
+     * @return id of the new label
+     */
+    int addLabel() {
+        checkNotFrozen();
+        if (numLabels == columns.length) {
+            int capacity = (int) Math.ceil(columns.length * ARRAY_INCREMENT_FACTOR);
+            columns = Arrays.copyOf(columns, capacity);
+            sparseColumns = Arrays.copyOf(sparseColumns, capacity);
+        }
+        columns[numLabels] = -1;
+        sparseColumns[numLabels] = new SparseColumn();
+        return numLabels++;
+    }
+
+    /**
+     * Moves every sparse label to a dense column, so that updates never need to add features to a
+     * sparse column, which isn't safe to do concurrently.
+     */
+    void densify() {
+        checkNotFrozen();
+        for (int label = 0; label < numLabels; label++)
+            if (sparseColumns[label] != null)
+                makeDense(label);
+    }
+
+    private void makeDenseIfFull(int label) {
+        if (sparseColumns[label].size() > MAX_SPARSE_FILL * featureCapacity)
+            makeDense(label);
+    }
+
+    private void makeDense(int label) {
+        if (numDenseColumns == labelCapacity)
+            relayout(featureCapacity, Math.max((int) Math.ceil(labelCapacity * ARRAY_INCREMENT_FACTOR),
+                    MIN_LABEL_CAPACITY));
+
+        int column = numDenseColumns++;
+        columnLabels[column] = label;
+        columns[label] = column;
+
+        SparseColumn sparse = sparseColumns[label];
+        sparseColumns[label] = null;
+        for (int slot = 0; slot < sparse.capacity(); slot++) {
+            int f = sparse.featureAt(slot);
+            if (f < 0)
+                continue;
+            int denseSlot = f * labelCapacity + column;
+            weights[denseSlot] = sparse.weightAt(slot);
+            accumulatedUpdates[denseSlot] = sparse.accumulatedUpdatesAt(slot);
+            avgWeights[denseSlot] = sparse.averageWeightAt(slot);
+        }
+    }
+
+    /**
+     * Grows the matrix so that it has rows for at least some number of features.
+     *
+     * @param numFeatures number of features needed
+     */
+    void ensureFeatureCapacity(int numFeatures) {
+        checkNotFrozen();
+        if (numFeatures > featureCapacity)
+            relayout(Math.max((int) Math.ceil(featureCapacity * ARRAY_INCREMENT_FACTOR), numFeatures),
+                    labelCapacity);
+    }
+
+    private void relayout(int newFeatureCapacity, int newLabelCapacity) {
+        weights = relayout(weights, newFeatureCapacity, newLabelCapacity);
+        avgWeights = relayout(avgWeights, newFeatureCapacity, newLabelCapacity);
+        accumulatedUpdates = relayout(accumulatedUpdates, newFeatureCapacity, newLabelCapacity);
+        if (newLabelCapacity != labelCapacity)
+            columnLabels = Arrays.copyOf(columnLabels, newLabelCapacity);
+        featureCapacity = newFeatureCapacity;
+        labelCapacity = newLabelCapacity;
+    }
+
+    private double[] relayout(double[] block, int newFeatureCapacity, int newLabelCapacity) {
+        if (newLabelCapacity == labelCapacity)
+            return Arrays.copyOf(block, newFeatureCapacity * labelCapacity);
+
+        double[] newBlock = new double[newFeatureCapacity * newLabelCapacity];
+        for (int f = 0; f < featureCapacity; f++)
+            System.arraycopy(block, f * labelCapacity, newBlock, f * newLabelCapacity, numDenseColumns);
+        return newBlock;
+    }
+
+    void incrementCurrentIteration() {
+        checkNotFrozen();
+        currentIteration++;
+    }
+
+    int currentIteration() {
+        return currentIteration;
+    }
+
+    void setCurrentIteration(int iteration) {
+        checkNotFrozen();
+        currentIteration = iteration;
+    }
+
+    /**
+     * Adds some weight to every feature of a datum for one label.
+     *
+     * @param features normalized feature vector of the datum
+     * @param label    label id to update
+     * @param weight   amount to add
+     * @param average  whether or not this update counts towards the averages from the current iteration
+     *                 (updates that don't are treated as if they were made before the first iteration)
+     */
+    void update(FeatureVector features, int label, double weight, boolean average) {
+        ensureFeatureCapacity(features.maxIndex() + 1);
+        update(features, label, weight, average ? currentIteration : 0);
+    }
+
+    /**
+     * Adds some weight to every feature of a datum for one label, as of some iteration.
+     * The matrix must already have rows for all the features. No locks are taken, so
+     * concurrent updates to the same slot may be lost, and updates can only be made
+     * concurrently once densify() has been called.
+     *
+     * @param features  normalized feature vector of the datum
+     * @param label     label id to update
+     * @param weight    amount to add
+     * @param iteration iteration the update was made in, or 0 if it doesn't count towards the averages
+     */
+    void update(FeatureVector features, int label, double weight, int iteration) {
+        int[] indices = features.indices();
+        double accumulated = weight * iteration;
+        int column = columns[label];
+        if (column < 0) {
+            SparseColumn sparse = sparseColumns[label];
+            for (int j = 0; j < features.size(); j++)
+                sparse.add(indices[j], weight, accumulated);
+            makeDenseIfFull(label);
+            return;
+        }
+        for (int j = 0; j < features.size(); j++) {
+            int slot = indices[j] * labelCapacity + column;
+            weights[slot] += weight;
+            accumulatedUpdates[slot] += accumulated;
+        }
+    }
+
+    /**
+     * Updates the average weights of the live features, so that they can be used for classification.
+     *
+     * @param numFeatures number of live features
+     */
+    void updateAllAverage(int numFeatures) {
+        if (frozen)
+            return;     //averages were finalized when frozen
+
+        numFeatures = Math.min(numFeatures, featureCapacity);
+        double c = currentIteration;
+        for (int f = 0; f < numFeatures; f++)
+            for (int slot = f * labelCapacity, end = slot + numDenseColumns; slot < end; slot++)
+                avgWeights[slot] = weights[slot] - accumulatedUpdates[slot] / c;
+        for (int label = 0; label < numLabels; label++)
+            if (sparseColumns[label] != null)
+                sparseColumns[label].updateAllAverage(c);
+    }
+
+    /**
+     * Scores every label for a datum. Features without a row contribute nothing.
+     *
+     * @param features normalized feature vector of the datum
+     * @param training whether to use training weights rather than average weights
+     * @param kernel   inner loop used to score frozen weights
+     * @param scores   array of at least numLabels() elements to write the scores to
+     */
+    void scores(FeatureVector features, boolean training, ScoringKernel kernel, double[] scores) {
+        if (training)
+            checkNotFrozen();
+        double[] w = training ? weights : avgWeights;
+        int[] indices = features.indices();
+
+        Arrays.fill(scores, 0, numLabels, 0.0);
+        if (block != null) {
+            for (int j = 0; j < features.size() && indices[j] < featureCapacity; j++)
+                block.addRow(indices[j], scores);
+            return;
+        }
+        int numFeatures = rowsIn(features);
+        if (frozen) {
+            kernel.addRows(w, labelCapacity, indices, numFeatures, scores, numLabels);
+            return;
+        }
+
+        for (int j = 0; j < numFeatures; j++)
+            for (int slot = indices[j] * labelCapacity, column = 0; column < numDenseColumns; slot++, column++)
+                scores[columnLabels[column]] += w[slot];
+        for (int label = 0; label < numLabels; label++)
+            if (sparseColumns[label] != null)
+                scores[label] = sparseColumns[label].score(indices, numFeatures, training);
+    }
+
+    /**
+     * Returns the label with the highest score for a datum, using the average weights.
+     * Ties go to the lowest label id.
+     * <p/>
+     * With pruning enabled, for frozen weights, one anchor label, the one that most often has the largest weight of a
+     * feature, is scored first. The other labels are then scored a few features at a time, and a
+     * label is abandoned as soon as it can no longer beat the anchor, even if it were to beat the
+     * anchor on each remaining feature by as much as any label does. Labels that are scored in full
+     * are summed one feature at a time, as by the SCALAR scoring kernel.
+     *
+     * @param features normalized feature vector of the datum
+     * @param pruned   whether to prune labels that can no longer win
+     * @param kernel   inner loop used to score every label when not pruning
+     * @return id of the best label, or -1 if there are no labels
+     */
+    int argMax(FeatureVector features, boolean pruned, ScoringKernel kernel) {
+        if (!pruned || !frozen || block != null || numLabels < MIN_PRUNED_LABELS) {
+            double[] scores = new double[numLabels];
+            scores(features, false, kernel, scores);
+            return PerceptronClassifier.argMax(scores);
+        }
+
+        double[] gaps = anchorGaps();
+        int anchor = anchorLabel;
+        int[] indices = features.indices();
+        int numFeatures = rowsIn(features);
+
+        //anchorScores[k] is the score of the anchor over the features before k,
+        //and remainingGaps[k] the most any label can gain on it over features k onwards
+        double[] anchorScores = new double[numFeatures + 1];
+        double[] remainingGaps = new double[numFeatures + 1];
+        for (int k = 0; k < numFeatures; k++)
+            anchorScores[k + 1] = anchorScores[k] + avgWeights[indices[k] * labelCapacity + anchor];
+        double magnitude = 1;
+        for (int k = numFeatures - 1; k >= 0; k--) {
+            remainingGaps[k] = remainingGaps[k + 1] + gaps[indices[k]];
+            magnitude += gaps[indices[k]] + Math.abs(avgWeights[indices[k] * labelCapacity + anchor]);
+        }
+        double slack = 1e-9 * magnitude;      //allowance for rounding in the bounds
+
+        int bestLabel = anchor;
+        double bestScore = anchorScores[numFeatures];
+
+        //every label is scored over the first few features, whose rows are added whole
+        double[] partialScores = new double[numLabels];
+        int k = Math.min(PRUNING_INTERVAL, numFeatures);
+        ScoringKernel.SCALAR.addRows(avgWeights, labelCapacity, indices, k, partialScores, numLabels);
+
+        //labels that are still in the running: a label scores at most its score so far, plus the
+        //anchor's over the remaining features, plus the gaps of those features, so it can't beat the
+        //anchor once its score so far trails the anchor's by more than the gaps
+        int[] live = new int[numLabels];
+        int numLive = 0;
+        for (int label = 0; label < numLabels; label++)
+            if (label != anchor && partialScores[label] >= anchorScores[k] - remainingGaps[k] - slack)
+                live[numLive++] = label;
+
+        while (numLive > 0 && k < numFeatures) {
+            for (int end = Math.min(k + PRUNING_INTERVAL, numFeatures); k < end; k++) {
+                int row = indices[k] * labelCapacity;
+                for (int i = 0; i < numLive; i++)
+                    partialScores[live[i]] += avgWeights[row + live[i]];
+            }
+
+            double threshold = anchorScores[k] - remainingGaps[k] - slack;
+            int kept = 0;
+            for (int i = 0; i < numLive; i++)
+                if (partialScores[live[i]] >= threshold)
+                    live[kept++] = live[i];
+            numLive = kept;
+        }
+
+        for (int i = 0; i < numLive; i++) {
+            int label = live[i];
+            if (partialScores[label] > bestScore || partialScores[label] == bestScore && label < bestLabel) {
+                bestScore = partialScores[label];
+                bestLabel = label;
+            }
+        }
+        return bestLabel;
+    }
+
+    /*
+    For each feature, how much more weight any label has than the anchor label. The anchor is
+    chosen, and the gaps computed, the first time they are needed.
+     */
+    private double[] anchorGaps() {
+        double[] gaps = anchorGaps;
+        if (gaps != null)
+            return gaps;
+
+        int[] timesLargest = new int[numLabels];
+        for (int f = 0; f < featureCapacity; f++) {
+            int largest = largestLabel(f);
+            if (avgWeights[f * labelCapacity + largest] > 0)
+                timesLargest[largest]++;
+        }
+        int anchor = 0;
+        for (int label = 1; label < numLabels; label++)
+            if (timesLargest[label] > timesLargest[anchor])
+                anchor = label;
+
+        gaps = new double[featureCapacity];
+        for (int f = 0; f < featureCapacity; f++) {
+            int row = f * labelCapacity;
+            gaps[f] = avgWeights[row + largestLabel(f)] - avgWeights[row + anchor];
+        }
+
+        anchorLabel = anchor;
+        anchorGaps = gaps;
+        return gaps;
+    }
+
+    private int largestLabel(int feature) {
+        int row = feature * labelCapacity;
+        int largest = 0;
+        for (int label = 1; label < numLabels; label++)
+            if (avgWeights[row + label] > avgWeights[row + largest])
+                largest = label;
+        return largest;
+    }
+
+    /*
+    Number of features of a datum that have a row, which come first since feature indices are sorted.
+     */
+    private int rowsIn(FeatureVector features) {
+        int[] indices = features.indices();
+        int numFeatures = features.size();
+        while (numFeatures > 0 && indices[numFeatures - 1] >= featureCapacity)
+            numFeatures--;
+        return numFeatures;
+    }
+
+    /**
+     * Scores every label for a datum using the average weights as of the current iteration,
+     * computed on the fly, without needing updateAllAverage() to be called first.
+     *
+     * @param features normalized feature vector of the datum
+     * @param scores   array of at least numLabels() elements to write the scores to
+     */
+    void runningAverageScores(FeatureVector features, double[] scores) {
+        runningAverageScores(features, currentIteration, scores);
+    }
+
+    /**
+     * Scores every label for a datum using the average weights as of some iteration.
+     *
+     * @param features  normalized feature vector of the datum
+     * @param iteration iteration to average up to
+     * @param scores    array of at least numLabels() elements to write the scores to
+     */
+    void runningAverageScores(FeatureVector features, int iteration, double[] scores) {
+        checkNotFrozen();
+        int[] indices = features.indices();
+        double c = iteration;
+
+        Arrays.fill(scores, 0, numLabels, 0.0);
+        int numFeatures = rowsIn(features);
+        for (int j = 0; j < numFeatures; j++)
+            for (int slot = indices[j] * labelCapacity, column = 0; column < numDenseColumns; slot++, column++)
+                scores[columnLabels[column]] += weights[slot] - accumulatedUpdates[slot] / c;
+        for (int label = 0; label < numLabels; label++)
+            if (sparseColumns[label] != null)
+                scores[label] = sparseColumns[label].runningAverageScore(indices, numFeatures, c);
+    }
+
+    /**
+     * Returns the average weight of a feature for a label, as of the last time the averages were updated.
+     *
+     * @param feature feature row, less than featureCapacity()
+     * @param label   label id
+     * @return average weight
+     */
+    double averageWeight(int feature, int label) {
+        if (block != null)
+            return block.get(feature, label);
+        if (frozen)
+            return avgWeights[feature * labelCapacity + label];
+        int column = columns[label];
+        return column < 0 ? sparseColumns[label].averageWeight(feature) :
+                avgWeights[feature * labelCapacity + column];
+    }
+
+    /*
+    Current weight of a feature for a label, while training.
+     */
+    private double weight(int feature, int label) {
+        int column = columns[label];
+        return column < 0 ? sparseColumns[label].weight(feature) : weights[feature * labelCapacity + column];
+    }
+
+    /*
+    Accumulated updates of a feature for a label, while training.
+     */
+    private double accumulatedUpdates(int feature, int label) {
+        int column = columns[label];
+        return column < 0 ? sparseColumns[label].accumulatedUpdates(feature) :
+                accumulatedUpdates[feature * labelCapacity + column];
+    }
+
+    /**
+     * Returns the average weight of a feature for a label as of the current iteration, computed from the
+     * update history without updating the stored averages. Frozen matrices return their final averages.
+     *
+     * @param feature feature row, less than featureCapacity()
+     * @param label   label id
+     * @return average weight
+     */
+    double currentAverageWeight(int feature, int label) {
+        if (frozen)
+            return averageWeight(feature, label);
+        return weight(feature, label) - accumulatedUpdates(feature, label) / currentIteration;
+    }
+
+    /**
+     * Returns the largest absolute average weight of a feature over all the labels, as of the current iteration.
+     *
+     * @param feature feature row, less than featureCapacity()
+     * @return largest absolute average weight
+     */
+    double maxAbsAverageWeight(int feature) {
+        double max = 0;
+        for (int label = 0; label < numLabels; label++)
+            max = Math.max(max, Math.abs(currentAverageWeight(feature, label)));
+        return max;
+    }
+
+    /**
+     * Returns a frozen matrix holding the average weights of some of the rows of this matrix, as of the
+     * current iteration. This matrix is not modified.
+     *
+     * @param rows rows to keep, in their order in the new matrix, or -1 for a row of zeros
+     * @return frozen matrix with rows.length rows
+     */
+    WeightMatrix frozenRows(int[] rows) {
+        double[] frozenAvgWeights = new double[rows.length * numLabels];
+        for (int i = 0; i < rows.length; i++)
+            if (rows[i] >= 0)
+                for (int label = 0; label < numLabels; label++)
+                    frozenAvgWeights[i * numLabels + label] = currentAverageWeight(rows[i], label);
+        return new WeightMatrix(frozenAvgWeights, rows.length, numLabels);
+    }
+
+    /**
+     * Sets a single slot, for loading weights from another representation.
+     * The update history is set so that the slot averages to avgWeight.
+     */
+    void set(int feature, int label, double weight, double avgWeight) {
+        set(feature, label, weight, (weight - avgWeight) * currentIteration, avgWeight);
+    }
+
+    /*
+    Sets every value of a single slot.
+     */
+    private void set(int feature, int label, double weight, double accumulated, double avgWeight) {
+        ensureFeatureCapacity(feature + 1);
+        int column = columns[label];
+        if (column < 0) {
+            sparseColumns[label].set(feature, weight, accumulated, avgWeight);
+            makeDenseIfFull(label);
+            return;
+        }
+        int slot = feature * labelCapacity + column;
+        weights[slot] = weight;
+        avgWeights[slot] = avgWeight;
+        accumulatedUpdates[slot] = accumulated;
+    }
+
+    /**
+     * Returns a copy of the current weights with an empty update history, to be trained
+     * separately and then combined back into this matrix with mix().
+     *
+     * @return copy of this matrix
+     */
+    WeightMatrix shardCopy() {
+        checkNotFrozen();
+        return new WeightMatrix(this);
+    }
+
+    /**
+     * Returns a copy of this matrix, update history included, which trains exactly as this matrix would.
+     *
+     * @return copy of this matrix
+     */
+    WeightMatrix copy() {
+        checkNotFrozen();
+        WeightMatrix copy = new WeightMatrix(this);
+        copy.avgWeights = avgWeights.clone();
+        copy.accumulatedUpdates = accumulatedUpdates.clone();
+        copy.currentIteration = currentIteration;
+        for (int label = 0; label < numLabels; label++)
+            if (sparseColumns[label] != null)
+                copy.sparseColumns[label] = sparseColumns[label].copy();
+        return copy;
+    }
+
+    /**
+     * Replaces the weights with the uniform mixture of the weights of some shard copies, and
+     * adds the iterations of every shard to the update history, so that the average weights
+     * cover every iteration of this matrix and of the shards.
+     * <p/>
+     * Rows and labels of the shards are mapped into this matrix, which must already have
+     * rows and labels for all of them.
+     *
+     * @param shards       copies made with shardCopy(), and trained since
+     * @param featureRows  for each shard, the row in this matrix of each of its rows, or null if they are the same
+     * @param labelColumns for each shard, the id in this matrix of each of its labels
+     */
+    void mix(List<WeightMatrix> shards, List<int[]> featureRows, List<int[]> labelColumns) {
+        checkNotFrozen();
+
+        //until the end, accumulatedUpdates holds the sum of the weights over every iteration, c * w - u
+        double c = currentIteration;
+        for (int slot = 0; slot < weights.length; slot++) {
+            accumulatedUpdates[slot] = c * weights[slot] - accumulatedUpdates[slot];
+            weights[slot] = 0;
+        }
+        for (int label = 0; label < numLabels; label++)
+            if (sparseColumns[label] != null)
+                sparseColumns[label].toWeightSums(c);
+
+        long totalIterations = currentIteration;
+        double scale = 1.0 / shards.size();
+        for (int k = 0; k < shards.size(); k++) {
+            WeightMatrix shard = shards.get(k);
+            int[] rows = featureRows.get(k);
+            int[] labels = labelColumns.get(k);
+            double shardC = shard.currentIteration;
+            totalIterations += shard.currentIteration;
+
+            int numRows = Math.min(shard.featureCapacity, rows == null ? featureCapacity : rows.length);
+            for (int l = 0; l < shard.numLabels; l++) {
+                int label = labels[l];
+                SparseColumn sparse = shard.sparseColumns[l];
+                if (sparse == null) {
+                    for (int f = 0, shardSlot = shard.columns[l]; f < numRows; f++, shardSlot += shard.labelCapacity) {
+                        int row = rows == null ? f : rows[f];
+                        double shardWeight = shard.weights[shardSlot];
+                        double shardSum = shardC * shardWeight - shard.accumulatedUpdates[shardSlot];
+                        if (row >= 0 && (shardWeight != 0 || shardSum != 0))
+                            addWeightSum(row, label, scale * shardWeight, shardSum);
+                    }
+                    continue;
+                }
+                for (int slot = 0; slot < sparse.capacity(); slot++) {
+                    int f = sparse.featureAt(slot);
+                    int row = f < 0 || f >= numRows ? -1 : rows == null ? f : rows[f];
+                    if (row >= 0)
+                        addWeightSum(row, label, scale * sparse.weightAt(slot),
+                                shardC * sparse.weightAt(slot) - sparse.accumulatedUpdatesAt(slot));
+                }
+            }
+        }
+
+        c = totalIterations;
+        for (int slot = 0; slot < weights.length; slot++)
+            accumulatedUpdates[slot] = c * weights[slot] - accumulatedUpdates[slot];
+        for (int label = 0; label < numLabels; label++)
+            if (sparseColumns[label] != null)
+                sparseColumns[label].fromWeightSums(c);
+        currentIteration = (int) totalIterations;
+    }
+
+    private void addWeightSum(int feature, int label, double weight, double weightSum) {
+        int column = columns[label];
+        if (column < 0) {
+            sparseColumns[label].add(feature, weight, weightSum);
+            makeDenseIfFull(label);
+            return;
+        }
+        int slot = feature * labelCapacity + column;
+        weights[slot] += weight;
+        accumulatedUpdates[slot] += weightSum;
+    }
+
+    private void writeObject(ObjectOutputStream oos) throws IOException {
+        oos.defaultWriteObject();
+        oos.writeInt(featureCapacity);
+        if (frozen) {
+            for (int f = 0; f < featureCapacity; f++)
+                for (int label = 0; label < numLabels; label++)
+                    oos.writeDouble(averageWeight(f, label));
+            return;
+        }
+
+        for (int label = 0; label < numLabels; label++) {
+            SparseColumn sparse = sparseColumns[label];
+            oos.writeBoolean(sparse == null);
+            if (sparse == null) {
+                writeDenseColumn(oos, columns[label]);
+                continue;
+            }
+            oos.writeInt(sparse.size());
+            for (int slot = 0; slot < sparse.capacity(); slot++) {
+                int f = sparse.featureAt(slot);
+                if (f < 0)
+                    continue;
+                oos.writeInt(f);
+                oos.writeDouble(sparse.weightAt(slot));
+                oos.writeDouble(sparse.accumulatedUpdatesAt(slot));
+                oos.writeDouble(sparse.averageWeightAt(slot));
+            }
+        }
+    }
+
+    /*
+    Writes the rows of a dense column up to its last nonzero one, which is never past the live features.
+     */
+    private void writeDenseColumn(ObjectOutputStream oos, int column) throws IOException {
+        int numRows = featureCapacity;
+        while (numRows > 0 && isZero(numRows - 1, column))
+            numRows--;
+
+        oos.writeInt(numRows);
+        for (int slot = column, f = 0; f < numRows; f++, slot += labelCapacity) {
+            oos.writeDouble(weights[slot]);
+            oos.writeDouble(accumulatedUpdates[slot]);
+            oos.writeDouble(avgWeights[slot]);
+        }
+    }
+
+    private boolean isZero(int feature, int column) {
+        int slot = feature * labelCapacity + column;
+        return weights[slot] == 0 && accumulatedUpdates[slot] == 0 && avgWeights[slot] == 0;
+    }
+
+    private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+        ois.defaultReadObject();
+
+        if (frozen) {
+            featureCapacity = ois.readInt();
+            labelCapacity = numLabels;
+            avgWeights = new double[featureCapacity * numLabels];
+            for (int slot = 0; slot < avgWeights.length; slot++)
+                avgWeights[slot] = ois.readDouble();
+            return;
+        }
+
+        int savedIteration = currentIteration;
+        allocate(ois.readInt());
+        currentIteration = savedIteration;
+
+        for (int label = 0; label < numLabels; label++) {
+            if (ois.readBoolean()) {
+                makeDense(label);
+                int numRows = ois.readInt();
+                for (int f = 0; f < numRows; f++)
+                    set(f, label, ois.readDouble(), ois.readDouble(), ois.readDouble());
+                continue;
+            }
+            int size = ois.readInt();
+            for (int i = 0; i < size; i++)
+                set(ois.readInt(), label, ois.readDouble(), ois.readDouble(), ois.readDouble());
+        }
+    }
+}
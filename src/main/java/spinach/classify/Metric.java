@@ -8,7 +8,6 @@ import spinach.sentence.SemanticFrameSet;
 import spinach.sentence.Token;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -33,16 +32,17 @@ public class Metric {
     private Counter<String> predictedArguments = new ClassicCounter<String>();
     private Counter<String> goldArguments = new ClassicCounter<String>();
 
-    private final Collection<SemanticFrameSet> goldFrameSets;
+    private final Iterable<SemanticFrameSet> goldFrameSets;
     private final GEN gen;
 
     /**
      * Generates a metric from a classifier and a bunch of known good SemanticFrameSets
      *
      * @param g             predicate/argument classifier for token sentence
-     * @param goldFrameSets gold SemanticFrameSets to compare GEN output against
+     * @param goldFrameSets gold SemanticFrameSets to compare GEN output against, which are
+     *                      iterated over again whenever the scores are recalculated
      */
-    public Metric(GEN g, Collection<SemanticFrameSet> goldFrameSets) {
+    public Metric(GEN g, Iterable<SemanticFrameSet> goldFrameSets) {
         gen = g;
         this.goldFrameSets = goldFrameSets;
         recalculateScores();
@@ -6,13 +6,25 @@ import spinach.sentence.SemanticFrameSet;
 import spinach.sentence.TokenSentence;
 import spinach.sentence.TokenSentenceAndPredicates;
 
+import java.io.*;
 import java.text.DateFormat;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * A class that does the entire task for a sentence--
  * determines the predicates and the arguments of said sentence.
  * Uses structured learning.
+ * <p/>
+ * Training can save checkpoints of its whole state, from which an interrupted run can be resumed
+ * with resumeTraining(), ending with exactly the same weights as an uninterrupted run.
+ * <p/>
+ * Training can also stop early, once the F1 of the average weights on held-out frames stops improving.
  *
  * @author Calvin Huang
  */
@@ -24,6 +36,23 @@ public class StructuredClassifier extends SemanticClassifier {
     private transient int trainingMode;
 
     private int epochs;
+    private int numThreads = 1;
+
+    private String checkpointPath;
+    private int checkpointInterval;
+
+    //epoch and position within its shuffled frames to start training from
+    private int startEpoch;
+    private int startPosition;
+
+    private Collection<SemanticFrameSet> devFrames;
+    private int patience;
+
+    //snapshots of the classifiers being trained at the epoch with the best F1 on the dev frames
+    private ArgumentClassifier bestArgumentClassifier;
+    private PredicateClassifier bestPredicateClassifier;
+    private double bestF1;
+    private int bestEpoch;
 
     public boolean VERBOSE = false;
 
@@ -66,18 +95,69 @@ public class StructuredClassifier extends SemanticClassifier {
      * @param sentence sentence to parse
      * @return semantic frameset with predicted predicates and arguments
      */
-    private SemanticFrameSet trainingParse(TokenSentence sentence) {
-        return argumentTrainingParse(predicateTrainingParse(sentence));
+    private static SemanticFrameSet trainingParse(TokenSentence sentence, ArgumentClassifier argumentClassifier,
+                                                  PredicateClassifier predicateClassifier) {
+        return argumentTrainingParse(predicateTrainingParse(sentence, predicateClassifier), argumentClassifier);
     }
 
-    private SemanticFrameSet argumentTrainingParse(TokenSentenceAndPredicates sentence) {
+    private static SemanticFrameSet argumentTrainingParse(TokenSentenceAndPredicates sentence,
+                                                          ArgumentClassifier argumentClassifier) {
         return argumentClassifier.trainingFramesWithArguments(sentence);
     }
 
-    private TokenSentenceAndPredicates predicateTrainingParse(TokenSentence sentence) {
+    private static TokenSentenceAndPredicates predicateTrainingParse(TokenSentence sentence,
+                                                                     PredicateClassifier predicateClassifier) {
         return predicateClassifier.trainingSentenceWithPredicates(sentence);
     }
 
+    /**
+     * Sets the number of threads to train with. With more than one thread, training uses iterative
+     * parameter mixing: each epoch, the training frames are split into one shard per thread, a copy
+     * of the classifiers is trained on each shard, and the weights of the copies are averaged
+     * into the classifiers at the end of the epoch. Results then depend on the number of threads.
+     *
+     * @param numThreads number of training threads (1 to train sequentially)
+     */
+    public void setNumThreads(int numThreads) {
+        if (numThreads < 1)
+            throw new IllegalArgumentException("Number of threads must be positive");
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Saves the whole state of training to a file at the end of every epoch and, when training
+     * sequentially, every so many sentences within an epoch. Each checkpoint replaces the last.
+     *
+     * @param filePath file to save checkpoints to, or null to stop saving checkpoints
+     * @param interval number of sentences between checkpoints within an epoch, or 0 for only at the end of epochs
+     */
+    public void setCheckpoint(String filePath, int interval) {
+        if (interval < 0)
+            throw new IllegalArgumentException("Checkpoint interval must not be negative");
+        checkpointPath = filePath;
+        checkpointInterval = interval;
+    }
+
+    /**
+     * Evaluates the classifiers being trained on held-out frames after every epoch, and stops training
+     * once their F1 hasn't improved for some number of epochs. The classifiers are then set back to
+     * their state at the epoch with the best F1. Each evaluation is of frozen copies of the classifiers,
+     * using their average weights and only looking features up, so training goes on exactly as it would
+     * without early stopping, and the features of the held-out frames are never added to the classifiers.
+     * The F1 is of the arguments, or of the predicates when only the predicate classifier is trained.
+     * <p/>
+     * Early stopping isn't part of checkpoints, and is not continued by resumeTraining().
+     *
+     * @param devFrames held-out frames to evaluate on, or null to always train for every epoch
+     * @param patience  number of epochs without improvement to stop after
+     */
+    public void setEarlyStopping(Collection<SemanticFrameSet> devFrames, int patience) {
+        if (patience < 1)
+            throw new IllegalArgumentException("Patience must be positive");
+        this.devFrames = devFrames;
+        this.patience = patience;
+    }
+
     /**
      * Trains this structured classifier on a collection of known SemanticFrameSets.
      *
@@ -86,10 +166,7 @@ public class StructuredClassifier extends SemanticClassifier {
     public void train(Collection<SemanticFrameSet> goldFrames) {
         setTrainingFrames(goldFrames);
         trainingMode = TRAIN_ALL;
-        train();
-
-        argumentClassifier.updateAverageWeights();
-        predicateClassifier.updateAverageWeights();
+        trainFromStart();
     }
 
     /**
@@ -98,9 +175,7 @@ public class StructuredClassifier extends SemanticClassifier {
     @Override
     public void trainArgumentClassifier() {
         trainingMode = TRAIN_ARGUMENT_C;
-        train();
-
-        argumentClassifier.updateAverageWeights();
+        trainFromStart();
     }
 
     /**
@@ -109,41 +184,243 @@ public class StructuredClassifier extends SemanticClassifier {
     @Override
     public void trainPredicateClassifier() {
         trainingMode = TRAIN_PREDICATE_C;
-        train();
+        trainFromStart();
+    }
+
+    /**
+     * Loads a checkpoint saved during training, and finishes the training it was saved from.
+     * The training frames must be the same, in the same order, as those of the original run.
+     * Checkpoints continue to be saved as they were in the original run.
+     *
+     * @param checkpointPath file the checkpoint was saved to
+     * @param trainingFrames frames the original run was training on
+     * @return structured classifier trained as if training had never been interrupted
+     * @throws IOException            if failed to load the checkpoint
+     * @throws ClassNotFoundException if the checkpoint is not of a structured classifier
+     */
+    public static StructuredClassifier resumeTraining(String checkpointPath,
+                                                      Collection<SemanticFrameSet> trainingFrames)
+            throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(checkpointPath))));
+
+        StructuredClassifier classifier;
+        try {
+            int trainingMode = in.readInt();
+            int epochs = in.readInt();
+            int numThreads = in.readInt();
+            int checkpointInterval = in.readInt();
+            int numFrames = in.readInt();
+            int epoch = in.readInt();
+            int position = in.readInt();
+            ArgumentClassifier argumentClassifier = (ArgumentClassifier) in.readObject();
+            PredicateClassifier predicateClassifier = (PredicateClassifier) in.readObject();
+
+            if (numFrames != trainingFrames.size())
+                throw new IllegalArgumentException("Checkpoint was saved while training on " + numFrames +
+                        " frames, not " + trainingFrames.size());
+
+            classifier = new StructuredClassifier(argumentClassifier, predicateClassifier, epochs, trainingFrames);
+            classifier.trainingMode = trainingMode;
+            classifier.numThreads = numThreads;
+            classifier.setCheckpoint(checkpointPath, checkpointInterval);
+            classifier.startEpoch = epoch;
+            classifier.startPosition = position;
+        } finally {
+            in.close();
+        }
 
-        predicateClassifier.updateAverageWeights();
+        System.out.println("Resuming training at sentence " + classifier.startPosition + " of epoch " +
+                (classifier.startEpoch + 1) + " of " + classifier.epochs);
+        classifier.train();
+        return classifier;
     }
 
+    private void trainFromStart() {
+        startEpoch = 0;
+        startPosition = 0;
+        train();
+    }
+
+    /*
+    Trains from the start position, then updates the average weights of the classifiers that were trained.
+     */
     private void train() {
         DateFormat df = DateFormat.getDateTimeInstance();
+        ExecutorService executor = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
+
+        int lastEpoch = startEpoch;
+        try {
+            for (int i = startEpoch; i < epochs; i++) {
+                lastEpoch = i;
+                if (VERBOSE) System.out.println();
+                System.out.println("Begin training epoch " + (i + 1) + " of " + epochs + " " + df.format(new Date()));
+
+                List<SemanticFrameSet> goldFramesCopy = new ArrayList<SemanticFrameSet>(trainingFrames);
+
+                Collections.shuffle(goldFramesCopy, new Random(i));
+
+                if (executor != null) {
+                    mixingEpoch(goldFramesCopy, executor);
+                } else {
+                    for (int j = i == startEpoch ? startPosition : 0; j < goldFramesCopy.size(); j++) {
+                        train(goldFramesCopy.get(j), argumentClassifier, predicateClassifier);
+                        if ((j + 1) % 5000 == 0 && VERBOSE)
+                            System.out.println("Trained " + (j + 1) + " sentences of " + trainingFrames.size() +
+                                    " | " + df.format(new Date()));
+                        if (checkpointInterval > 0 && (j + 1) % checkpointInterval == 0 &&
+                                j + 1 < goldFramesCopy.size())
+                            saveCheckpoint(i, j + 1);
+                    }
+                }
+                saveCheckpoint(i + 1, 0);
+
+                if (devFrames != null && !improvedOnDevFrames(i))
+                    break;
+            }
+        } finally {
+            if (executor != null)
+                executor.shutdown();
+        }
+
+        if (devFrames != null && bestEpoch < lastEpoch) {
+            if (bestArgumentClassifier != null)
+                argumentClassifier.restore(bestArgumentClassifier);
+            if (bestPredicateClassifier != null)
+                predicateClassifier.restore(bestPredicateClassifier);
+            System.out.println("Restored the classifiers as of epoch " + (bestEpoch + 1));
+            saveCheckpoint(epochs, 0);
+        }
+        bestArgumentClassifier = null;
+        bestPredicateClassifier = null;
+
+        if (trainingMode != TRAIN_PREDICATE_C)
+            argumentClassifier.updateAverageWeights();
+        if (trainingMode != TRAIN_ARGUMENT_C)
+            predicateClassifier.updateAverageWeights();
+    }
+
+    /*
+    Evaluates frozen copies of the classifiers being trained after some epoch, and keeps a snapshot of their
+    training state if they are the best yet. Returns whether training should go on.
+     */
+    private boolean improvedOnDevFrames(int epoch) {
+        boolean trainArguments = trainingMode != TRAIN_PREDICATE_C;
+        boolean trainPredicates = trainingMode != TRAIN_ARGUMENT_C;
+
+        Metric metric = new Metric(new StructuredClassifier(argumentClassifier.frozenCopy(),
+                predicateClassifier.frozenCopy(), epochs, trainingFrames), devFrames);
+        double f1 = trainArguments ? metric.argumentF1s().getCount(Metric.TOTAL) : metric.predicateF1();
 
-        for (int i = 0; i < epochs; i++) {
-            if (VERBOSE) System.out.println();
-            System.out.println("Begin training epoch " + (i + 1) + " of " + epochs + " " + df.format(new Date()));
+        if (epoch == startEpoch || f1 > bestF1) {
+            bestArgumentClassifier = trainArguments ? argumentClassifier.snapshot() : null;
+            bestPredicateClassifier = trainPredicates ? predicateClassifier.snapshot() : null;
+            bestF1 = f1;
+            bestEpoch = epoch;
+        }
+        System.out.println("Epoch " + (epoch + 1) + " dev F1 " + f1 + ", best " + bestF1 + " after epoch " +
+                (bestEpoch + 1));
 
-            List<SemanticFrameSet> goldFramesCopy = new ArrayList<SemanticFrameSet>(trainingFrames);
+        if (epoch - bestEpoch < patience)
+            return true;
+        System.out.println("Stopping early after epoch " + (epoch + 1) + ": no improvement since epoch " +
+                (bestEpoch + 1));
+        return false;
+    }
 
-            Collections.shuffle(goldFramesCopy, new Random(i));
+    /*
+    Saves the state of training, if checkpoints are enabled, to be resumed at some position of some epoch.
+    The checkpoint is written to a temporary file first, so that the last checkpoint survives a crash while saving.
+     */
+    private void saveCheckpoint(int epoch, int position) {
+        if (checkpointPath == null)
+            return;
 
-            int j = 0;
-            for (SemanticFrameSet goldFrame : goldFramesCopy) {
-                j++;
-                train(goldFrame);
-                if (j % 5000 == 0 && VERBOSE)
-                    System.out.println("Trained " + j + " sentences of " + trainingFrames.size() + " | " +
-                            df.format(new Date()));
+        File checkpoint = new File(checkpointPath);
+        File temporary = new File(checkpointPath + ".tmp");
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(new FileOutputStream(temporary))));
+            try {
+                out.writeInt(trainingMode);
+                out.writeInt(epochs);
+                out.writeInt(numThreads);
+                out.writeInt(checkpointInterval);
+                out.writeInt(trainingFrames.size());
+                out.writeInt(epoch);
+                out.writeInt(position);
+                out.writeObject(argumentClassifier);
+                out.writeObject(predicateClassifier);
+            } finally {
+                out.close();
             }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to save checkpoint to " + temporary, e);
+        }
+
+        if (!temporary.renameTo(checkpoint) && !(checkpoint.delete() && temporary.renameTo(checkpoint)))
+            throw new RuntimeException("Failed to replace checkpoint " + checkpoint);
+        if (VERBOSE)
+            System.out.println("Saved checkpoint at sentence " + position + " of epoch " + (epoch + 1));
+    }
+
+    /*
+    One epoch of iterative parameter mixing: copies of the classifiers are trained on
+    contiguous shards of the frames in parallel, then mixed back into the classifiers.
+     */
+    private void mixingEpoch(List<SemanticFrameSet> goldFrames, ExecutorService executor) {
+        boolean trainArguments = trainingMode != TRAIN_PREDICATE_C;
+        boolean trainPredicates = trainingMode != TRAIN_ARGUMENT_C;
+
+        List<ArgumentClassifier> argumentShards = new ArrayList<ArgumentClassifier>();
+        List<PredicateClassifier> predicateShards = new ArrayList<PredicateClassifier>();
+        List<Future<?>> shards = new ArrayList<Future<?>>();
+        int shardSize = (goldFrames.size() + numThreads - 1) / numThreads;
+
+        for (int start = 0; start < goldFrames.size(); start += shardSize) {
+            final List<SemanticFrameSet> shard =
+                    goldFrames.subList(start, Math.min(start + shardSize, goldFrames.size()));
+            final ArgumentClassifier argumentShard = trainArguments ?
+                    argumentClassifier.shardCopy() : argumentClassifier;
+            final PredicateClassifier predicateShard = trainPredicates ?
+                    predicateClassifier.shardCopy() : predicateClassifier;
+            argumentShards.add(argumentShard);
+            predicateShards.add(predicateShard);
+
+            shards.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (SemanticFrameSet goldFrame : shard)
+                        train(goldFrame, argumentShard, predicateShard);
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> shard : shards)
+                shard.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while training", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Training thread failed", e.getCause());
         }
+
+        if (trainArguments)
+            argumentClassifier.mix(argumentShards);
+        if (trainPredicates)
+            predicateClassifier.mix(predicateShards);
     }
 
-    private void train(SemanticFrameSet goldFrame) {
+    private void train(SemanticFrameSet goldFrame, ArgumentClassifier argumentClassifier,
+                       PredicateClassifier predicateClassifier) {
 
         //when this is run, parse ignores the predicates and semantic data
 
         switch (trainingMode) {
 
             case TRAIN_ALL:
-                SemanticFrameSet predictedFrame = trainingParse(goldFrame);
+                SemanticFrameSet predictedFrame = trainingParse(goldFrame, argumentClassifier, predicateClassifier);
                 predictedFrame.trimPredicates();
 
                 predicateClassifier.update(predictedFrame, goldFrame);
@@ -152,13 +429,13 @@ public class StructuredClassifier extends SemanticClassifier {
 
             case TRAIN_ARGUMENT_C:
                 predictedFrame = PREDICTED_PRED_WHILE_ARG_TRAINING ?
-                        trainingParse(goldFrame) :
-                        argumentTrainingParse(goldFrame);
+                        trainingParse(goldFrame, argumentClassifier, predicateClassifier) :
+                        argumentTrainingParse(goldFrame, argumentClassifier);
                 argumentClassifier.update(predictedFrame, goldFrame);
                 break;
 
             case TRAIN_PREDICATE_C:
-                TokenSentenceAndPredicates predictedPredicates = predicateTrainingParse(goldFrame);
+                TokenSentenceAndPredicates predictedPredicates = predicateTrainingParse(goldFrame, predicateClassifier);
                 predicateClassifier.update(predictedPredicates, goldFrame);
                 break;
         }
@@ -3,13 +3,15 @@ package spinach.predicateclassifier;
 import com.google.common.collect.ImmutableList;
 import edu.stanford.nlp.classify.Dataset;
 import edu.stanford.nlp.ling.BasicDatum;
+import spinach.classifier.BinaryModel;
+import spinach.classifier.FeatureVector;
 import spinach.classifier.PerceptronClassifier;
 import spinach.sentence.Token;
 import spinach.sentence.TokenSentence;
 import spinach.sentence.TokenSentenceAndPredicates;
 
 import java.io.*;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -19,12 +21,12 @@ import java.util.zip.GZIPOutputStream;
  *
  * @author Calvin Huang
  */
-public class PredicateClassifier implements Serializable {
+public class PredicateClassifier implements Serializable, Cloneable {
 
     private static final long serialVersionUID = -2949247669362202540L;
 
-    private final PerceptronClassifier classifier;
-    private final PredicateFeatureGenerator featureGenerator;
+    private PerceptronClassifier classifier;
+    private PredicateFeatureGenerator featureGenerator;
 
     private final static String PREDICATE_LABEL = "predicate";
     private final static String NOT_PREDICATE_LABEL = "not_predicate";
@@ -84,13 +86,12 @@ public class PredicateClassifier implements Serializable {
 
     private TokenSentenceAndPredicates sentenceWithPredicates(TokenSentence sentence, boolean training) {
         TokenSentenceAndPredicates sentenceAndPredicates = new TokenSentenceAndPredicates(sentence);
+
+        int predicateLabel = classifier.labelIndexOf(PREDICATE_LABEL);
+        FeatureVector features = new FeatureVector();
         for (Token t : sentenceAndPredicates) {
-            String predicateClass;
-            if (training)
-                predicateClass = classifier.trainingClassOf(featureGenerator.datumFrom(sentenceAndPredicates, t));
-            else
-                predicateClass = classifier.classOf(featureGenerator.datumFrom(sentenceAndPredicates, t));
-            if (PREDICATE_LABEL.equals(predicateClass))
+            classifier.featuresOf(featureGenerator.datumFrom(sentenceAndPredicates, t), features);
+            if (predicateLabel >= 0 && classifier.bestLabelOf(features, training) == predicateLabel)
                 sentenceAndPredicates.addPredicate(t);
         }
 
@@ -104,21 +105,19 @@ public class PredicateClassifier implements Serializable {
      * @param goldSentence      true sentence
      */
     public void update(TokenSentenceAndPredicates predictedSentence, TokenSentenceAndPredicates goldSentence) {
-        Dataset<String, String> dataset = new Dataset<String, String>();
+        FeatureVector features = new FeatureVector();
 
         for (Token t : goldSentence) {
 
             String goldLabel = goldSentence.isPredicate(t) ? PREDICATE_LABEL : NOT_PREDICATE_LABEL;
             String predictedLabel = predictedSentence.isPredicate(t) ? PREDICATE_LABEL : NOT_PREDICATE_LABEL;
 
-            BasicDatum<String, String> datum = (BasicDatum<String, String>)
-                    featureGenerator.datumFrom(predictedSentence, t);
+            int gold = classifier.labelIndexOf(goldLabel, true);
+            int predicted = classifier.labelIndexOf(predictedLabel, false);
 
-            datum.setLabel(PerceptronClassifier.formatManualTrainingLabel(predictedLabel, goldLabel));
-            dataset.add(datum);
+            classifier.featuresOf(featureGenerator.datumFrom(predictedSentence, t), features);
+            classifier.update(features, gold, predicted);
         }
-
-        classifier.manualTrain(dataset);
     }
 
     /**
@@ -129,6 +128,81 @@ public class PredicateClassifier implements Serializable {
         classifier.updateAverageWeights();
     }
 
+    /**
+     * Freezes the perceptron for this classifier for inference. Features not seen in training
+     * are ignored from then on, and the classifier can no longer be trained.
+     */
+    public void freeze() {
+        classifier.freeze();
+    }
+
+    /**
+     * Returns a copy of this predicate classifier for training on one shard of the data,
+     * with its own copies of the perceptron and the feature generator.
+     *
+     * @return copy of this predicate classifier
+     */
+    public PredicateClassifier shardCopy() {
+        PredicateClassifier copy = withClassifier(classifier.shardCopy());
+        copy.featureGenerator = featureGenerator.copy();
+        return copy;
+    }
+
+    /*
+    Copy of this predicate classifier with a different perceptron.
+     */
+    private PredicateClassifier withClassifier(PerceptronClassifier classifier) {
+        PredicateClassifier copy;
+        try {
+            copy = (PredicateClassifier) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        copy.classifier = classifier;
+        return copy;
+    }
+
+    /**
+     * Returns a copy of this predicate classifier with a snapshot of the whole training state of the
+     * perceptron, to be evaluated or restored later. The feature generator is shared.
+     *
+     * @return copy of this predicate classifier
+     */
+    public PredicateClassifier snapshot() {
+        return withClassifier(classifier.snapshot());
+    }
+
+    /**
+     * Returns a copy of this predicate classifier with a frozen copy of the perceptron, to be evaluated
+     * without changing this classifier. The feature generator is shared.
+     *
+     * @return copy of this predicate classifier
+     */
+    public PredicateClassifier frozenCopy() {
+        return withClassifier(classifier.frozenCopy());
+    }
+
+    /**
+     * Sets the perceptron of this classifier back to the training state of a snapshot.
+     *
+     * @param snapshot copy made with snapshot()
+     */
+    public void restore(PredicateClassifier snapshot) {
+        classifier.restore(snapshot.classifier);
+    }
+
+    /**
+     * Sets the perceptron weights of this classifier to the average of those of its shard copies.
+     *
+     * @param shards copies made with shardCopy(), and trained since
+     */
+    public void mix(List<PredicateClassifier> shards) {
+        List<PerceptronClassifier> perceptrons = new ArrayList<PerceptronClassifier>();
+        for (PredicateClassifier shard : shards)
+            perceptrons.add(shard.classifier);
+        classifier.mix(perceptrons);
+    }
+
     /**
      * Generates a dataset (to be used in training) for a given frameset
      *
@@ -153,9 +227,9 @@ public class PredicateClassifier implements Serializable {
     /**
      * Trains on a bunch of SemanticFrameSets.
      *
-     * @param frameSets Collection of framesets to generate a dataset
+     * @param frameSets framesets to generate a dataset
      */
-    public void unstructuredTrain(Collection<? extends TokenSentenceAndPredicates> frameSets) {
+    public void unstructuredTrain(Iterable<? extends TokenSentenceAndPredicates> frameSets) {
         Dataset<String, String> dataset = new Dataset<String, String>();
         for (TokenSentenceAndPredicates frameSet : frameSets)
             dataset.addAll(datasetFrom(frameSet));
@@ -193,4 +267,76 @@ public class PredicateClassifier implements Serializable {
         out.writeObject(this);
         out.close();
     }
+
+    /**
+     * Saves a compacted copy of this predicate classifier, for inference only. Features whose average weights
+     * are all smaller in magnitude than a threshold are dropped from the copy, and the size of the
+     * classifier before and after compaction is reported. This classifier is not modified.
+     *
+     * @param filePath            file to save classifier to
+     * @param compactionThreshold smallest largest-absolute-average-weight for a feature to be kept
+     * @throws IOException if failed to export
+     */
+    public void exportClassifier(String filePath, double compactionThreshold) throws IOException {
+        withClassifier(classifier.compactedCopy(compactionThreshold)).exportClassifier(filePath);
+        System.err.println("Exported compacted predicate classifier: " + new File(filePath).length() + " bytes");
+    }
+
+    /**
+     * Loads a predicate classifier saved with exportBinaryClassifier(). The weights are
+     * memory-mapped rather than read, and the loaded classifier is frozen.
+     *
+     * @param filePath file to load classifier from
+     * @return imported classifier
+     * @throws IOException            if failed to load
+     * @throws ClassNotFoundException if class found is not a PredicateClassifier
+     */
+    public static PredicateClassifier importBinaryClassifier(String filePath)
+            throws IOException, ClassNotFoundException {
+        BinaryModel model = BinaryModel.map(filePath);
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(model.metadata()));
+
+        return ((PredicateClassifier) in.readObject()).withClassifier(model.classifier());
+    }
+
+    /**
+     * Saves the average weights of this predicate classifier in the compact binary model format,
+     * for inference only.
+     *
+     * @param filePath file to save classifier to
+     * @throws IOException if failed to export
+     */
+    public void exportBinaryClassifier(String filePath) throws IOException {
+        exportBinaryClassifier(filePath, BinaryModel.WeightPrecision.DOUBLE);
+    }
+
+    /**
+     * Saves the average weights of this predicate classifier in the compact binary model format,
+     * for inference only, with weights stored as floats or quantized to save memory.
+     *
+     * @param filePath  file to save classifier to
+     * @param precision precision to store the weights with
+     * @throws IOException if failed to export
+     */
+    public void exportBinaryClassifier(String filePath, BinaryModel.WeightPrecision precision) throws IOException {
+        ByteArrayOutputStream shell = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(shell);
+        out.writeObject(withClassifier(null));
+        out.close();
+
+        BinaryModel.write(classifier, shell.toByteArray(), filePath, precision);
+    }
+
+    /**
+     * Converts a predicate classifier saved with exportClassifier() to the binary model format.
+     *
+     * @param filePath       file to load classifier from
+     * @param binaryFilePath file to save binary classifier to
+     * @throws IOException            if failed to load or export
+     * @throws ClassNotFoundException if class found is not a PredicateClassifier
+     */
+    public static void convertClassifier(String filePath, String binaryFilePath)
+            throws IOException, ClassNotFoundException {
+        importClassifier(filePath).exportBinaryClassifier(binaryFilePath);
+    }
 }
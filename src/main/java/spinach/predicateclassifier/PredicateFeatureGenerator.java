@@ -18,7 +18,7 @@ import java.util.*;
  *
  * @author Calvin Huang
  */
-public class PredicateFeatureGenerator implements Serializable {
+public class PredicateFeatureGenerator implements Serializable, Cloneable {
 
     private static final long serialVersionUID = -1845631435481366524L;
 
@@ -294,7 +294,7 @@ public class PredicateFeatureGenerator implements Serializable {
      *
      * @param trainingSet training set used to train
      */
-    public void reduceFeatureSet(Collection<SemanticFrameSet> trainingSet) {
+    public void reduceFeatureSet(Iterable<SemanticFrameSet> trainingSet) {
         Counter<String> featureCounter = new ClassicCounter<String>();
 
         for (SemanticFrameSet frameSet : trainingSet)
@@ -320,4 +320,20 @@ public class PredicateFeatureGenerator implements Serializable {
     public Set<String> getAllowedNonStructuralFeatures() {
         return Collections.unmodifiableSet(allowedNonStructuralFeatures);
     }
+
+    /**
+     * Returns a copy of this feature generator, for generating features in another thread.
+     * The set of allowed features is shared with this generator.
+     *
+     * @return copy of this feature generator
+     */
+    public PredicateFeatureGenerator copy() {
+        try {
+            PredicateFeatureGenerator copy = (PredicateFeatureGenerator) clone();
+            copy.clearFocus();
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
 }
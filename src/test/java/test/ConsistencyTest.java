@@ -0,0 +1,67 @@
+package test;
+
+import spinach.CorpusUtils;
+import spinach.argumentclassifier.ArgumentClassifier;
+import spinach.argumentclassifier.LeftRightArgumentClassifier;
+import spinach.argumentclassifier.featuregen.ArgumentFeatureGenerator;
+import spinach.classifier.PerceptronClassifier;
+import spinach.sentence.SemanticFrameSet;
+import spinach.sentence.Token;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static test.TestConstants.*;
+
+/**
+ * Trains a left-right argument classifier, labels the arguments of the devel corpus with consistency
+ * enabled, and reports every predicate that was given the same A0-A9 label more than once, which
+ * consistency should rule out. Exits with status 1 if there are any.
+ * Usage: ConsistencyTest [trainCorpus develCorpus]
+ */
+public class ConsistencyTest {
+
+    public static void main(String[] args) throws IOException {
+        String trainCorpus = args.length == 2 ? args[0] : TRAIN_CORPUS;
+        String develCorpus = args.length == 2 ? args[1] : DEVEL_CORPUS;
+
+        List<SemanticFrameSet> trainingFrames = CorpusUtils.parseCorpus(trainCorpus);
+        System.out.println("parsed train corpus");
+        List<SemanticFrameSet> testFrameSets = CorpusUtils.parseCorpus(develCorpus);
+        System.out.println("parsed devel corpus");
+
+        ArgumentFeatureGenerator argumentFeatureGenerator = new ArgumentFeatureGenerator();
+        argumentFeatureGenerator.reduceFeatureSet(trainingFrames);
+        ArgumentClassifier argumentClassifier = new LeftRightArgumentClassifier(
+                new PerceptronClassifier(NUM_EPOCHS), argumentFeatureGenerator);
+        argumentClassifier.setConsistencyMode(true, false);
+        argumentClassifier.unstructuredTrain(trainingFrames);
+
+        int numPredicates = 0;
+        int numRestricted = 0;
+        int numViolations = 0;
+        for (SemanticFrameSet gold : testFrameSets) {
+            SemanticFrameSet predicted = argumentClassifier.framesWithArguments(gold);
+            for (Token predicate : predicted.getPredicateList()) {
+                numPredicates++;
+                Set<String> seen = new HashSet<String>();
+                for (String label : predicted.argumentsOf(predicate).values()) {
+                    if (!label.matches("A[0-9]"))
+                        continue;
+                    numRestricted++;
+                    if (!seen.add(label)) {
+                        numViolations++;
+                        System.out.println("label " + label + " repeated for predicate " + predicate.form);
+                    }
+                }
+            }
+        }
+
+        System.out.format("%d predicates, %d restricted labels, %d repeated\n",
+                numPredicates, numRestricted, numViolations);
+        if (numViolations > 0)
+            System.exit(1);
+    }
+}
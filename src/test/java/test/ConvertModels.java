@@ -0,0 +1,30 @@
+package test;
+
+import spinach.argumentclassifier.ArgumentClassifier;
+import spinach.predicateclassifier.PredicateClassifier;
+
+import java.io.IOException;
+
+/**
+ * Converts serialized argument and predicate classifiers to the binary model format.
+ * Usage: ConvertModels [argumentClassifier.gz argumentClassifier.bin predicateClassifier.gz predicateClassifier.bin]
+ */
+public class ConvertModels {
+
+    private static final String ARG_CLASSIFIER_LOC = "src/test/resources/argumentClassifierEFA.gz";
+    private static final String PRED_CLASSIFIER_LOC = "src/test/resources/predicateClassifierA.gz";
+    private static final String ARG_BINARY_LOC = "src/test/resources/argumentClassifierEFA.bin";
+    private static final String PRED_BINARY_LOC = "src/test/resources/predicateClassifierA.bin";
+
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        boolean custom = args.length == 4;
+
+        ArgumentClassifier.convertClassifier(custom ? args[0] : ARG_CLASSIFIER_LOC,
+                custom ? args[1] : ARG_BINARY_LOC);
+        System.out.println("Converted argument classifier");
+
+        PredicateClassifier.convertClassifier(custom ? args[2] : PRED_CLASSIFIER_LOC,
+                custom ? args[3] : PRED_BINARY_LOC);
+        System.out.println("Converted predicate classifier");
+    }
+}
@@ -0,0 +1,56 @@
+package test;
+
+import spinach.CorpusUtils;
+import spinach.sentence.SemanticFrameSet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Measures the throughput of parsing a corpus, both on one thread and on several, next to that of only
+ * reading its lines and splitting them into columns with a regular expression, as the corpus reader used to.
+ * A large corpus, of tens of megabytes, gives the steadiest numbers.
+ * Usage: CorpusParsingBenchmark [corpus [numThreads]]
+ */
+public class CorpusParsingBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        String corpus = args.length > 0 ? args[0] : TestConstants.TRAIN_CORPUS;
+        int numThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        double megabytes = new File(corpus).length() / 1e6;
+
+        for (int round = 0; round < ROUNDS; round++) {     //the first rounds warm up
+            long start = System.nanoTime();
+            long columns = splitLines(corpus);
+            double splitSeconds = (System.nanoTime() - start) / 1e9;
+
+            start = System.nanoTime();
+            List<SemanticFrameSet> sentences = CorpusUtils.parseCorpus(corpus);
+            double parseSeconds = (System.nanoTime() - start) / 1e9;
+
+            start = System.nanoTime();
+            CorpusUtils.parseCorpus(corpus, numThreads);
+            double parallelSeconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.format("round %d: %d sentences, %d columns; split %.1f MB/s, parse %.1f MB/s, " +
+                    "parse on %d threads %.1f MB/s\n", round, sentences.size(), columns, megabytes / splitSeconds,
+                    megabytes / parseSeconds, numThreads, megabytes / parallelSeconds);
+        }
+    }
+
+    private static long splitLines(String corpus) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(corpus));
+        long columns = 0;
+        String line;
+        while ((line = reader.readLine()) != null)
+            if (!line.equals(""))
+                columns += line.split("\\s+").length;
+        reader.close();
+        return columns;
+    }
+}
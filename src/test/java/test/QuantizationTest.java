@@ -0,0 +1,69 @@
+package test;
+
+import spinach.CorpusUtils;
+import spinach.argumentclassifier.ArgumentClassifier;
+import spinach.classifier.BinaryModel.WeightPrecision;
+import spinach.classify.Metric;
+import spinach.classify.StructuredClassifier;
+import spinach.predicateclassifier.PredicateClassifier;
+import spinach.sentence.SemanticFrameSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static test.TestConstants.*;
+
+/**
+ * Exports the argument and predicate classifiers at each binary weight precision, and reports the
+ * size of each model and the change in argument and predicate F1 against the original classifiers.
+ * Usage: QuantizationTest [argumentClassifier.gz predicateClassifier.gz]
+ */
+public class QuantizationTest {
+
+    private static final String ARG_CLASSIFIER_LOC = "src/test/resources/argumentClassifierEFA.gz";
+    private static final String PRED_CLASSIFIER_LOC = "src/test/resources/predicateClassifierA.gz";
+
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        String argClassifierLoc = args.length == 2 ? args[0] : ARG_CLASSIFIER_LOC;
+        String predClassifierLoc = args.length == 2 ? args[1] : PRED_CLASSIFIER_LOC;
+
+        List<SemanticFrameSet> testFrameSets = CorpusUtils.loadCorpus(DEVEL_CORPUS, DEVEL_CORPUS_CACHE);
+        System.out.println("parsed devel corpus");
+
+        ArgumentClassifier argumentClassifier = ArgumentClassifier.importClassifier(argClassifierLoc);
+        PredicateClassifier predicateClassifier = PredicateClassifier.importClassifier(predClassifierLoc);
+
+        Metric original = metric(argumentClassifier, predicateClassifier, testFrameSets);
+        double argumentF1 = original.argumentF1s().getCount(Metric.TOTAL);
+        double predicateF1 = original.predicateF1();
+        System.out.format("original: argument F1 %.4f predicate F1 %.4f\n", argumentF1, predicateF1);
+
+        for (WeightPrecision precision : WeightPrecision.values()) {
+            File argFile = File.createTempFile("argumentClassifier", ".bin");
+            File predFile = File.createTempFile("predicateClassifier", ".bin");
+            argFile.deleteOnExit();
+            predFile.deleteOnExit();
+
+            argumentClassifier.exportBinaryClassifier(argFile.getPath(), precision);
+            predicateClassifier.exportBinaryClassifier(predFile.getPath(), precision);
+
+            Metric m = metric(ArgumentClassifier.importBinaryClassifier(argFile.getPath()),
+                    PredicateClassifier.importBinaryClassifier(predFile.getPath()), testFrameSets);
+            double quantizedArgumentF1 = m.argumentF1s().getCount(Metric.TOTAL);
+            double quantizedPredicateF1 = m.predicateF1();
+
+            System.out.format("%s: size %d + %d bytes, argument F1 %.4f (%+.4f) predicate F1 %.4f (%+.4f)\n",
+                    precision, argFile.length(), predFile.length(),
+                    quantizedArgumentF1, quantizedArgumentF1 - argumentF1,
+                    quantizedPredicateF1, quantizedPredicateF1 - predicateF1);
+        }
+    }
+
+    private static Metric metric(ArgumentClassifier argumentClassifier, PredicateClassifier predicateClassifier,
+                                 List<SemanticFrameSet> testFrameSets) {
+        StructuredClassifier classifier = new StructuredClassifier(argumentClassifier, predicateClassifier,
+                NUM_EPOCHS, testFrameSets);
+        return new Metric(classifier, testFrameSets);
+    }
+}
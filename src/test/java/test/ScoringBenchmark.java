@@ -0,0 +1,127 @@
+package test;
+
+import edu.stanford.nlp.classify.Dataset;
+import edu.stanford.nlp.ling.BasicDatum;
+import edu.stanford.nlp.ling.Datum;
+import spinach.classifier.FeatureVector;
+import spinach.classifier.PerceptronClassifier;
+import spinach.classifier.ScoreVector;
+import spinach.classifier.ScoringKernel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the scoring kernels on a frozen classifier trained on synthetic data shaped like the
+ * argument classifier's, reporting the time to score a datum and how far each kernel's scores
+ * are from the scalar kernel's, then does the same for finding only the best label, with and without pruning.
+ * Usage: ScoringBenchmark [numFeatures numLabels featuresPerDatum]
+ */
+public class ScoringBenchmark {
+
+    private static final int NUM_DATA = 20000;
+    private static final int ROUNDS = 20;
+    private static final double NIL_FRACTION = 0.7;
+
+    public static void main(String[] args) {
+        boolean custom = args.length == 3;
+        int numFeatures = custom ? Integer.parseInt(args[0]) : 200000;
+        int numLabels = custom ? Integer.parseInt(args[1]) : 50;
+        int featuresPerDatum = custom ? Integer.parseInt(args[2]) : 60;
+
+        Random random = new Random(0);
+        List<Datum<String, String>> data = new ArrayList<Datum<String, String>>(NUM_DATA);
+        Dataset<String, String> dataset = new Dataset<String, String>();
+        for (int i = 0; i < NUM_DATA; i++) {
+            //most candidates are NIL, and the rest are skewed towards a few frequent labels
+            String label = random.nextDouble() < NIL_FRACTION ? "NIL" :
+                    "L" + (int) ((numLabels - 1) * Math.pow(random.nextDouble(), 2));
+
+            //half of the features are shared by every label, and half are typical of the datum's label,
+            //both skewed towards frequent features, as real feature counts are
+            List<String> features = new ArrayList<String>(featuresPerDatum);
+            for (int j = 0; j < featuresPerDatum; j++) {
+                double u = random.nextDouble();
+                if (j % 2 == 0)
+                    features.add("f" + (int) (numFeatures / 2 * u * u * u));
+                else
+                    features.add(label + "f" + (int) (numFeatures / 2 / numLabels * u * u * u));
+            }
+            BasicDatum<String, String> datum = new BasicDatum<String, String>(features, label);
+            data.add(datum);
+            dataset.add(datum);
+        }
+
+        PerceptronClassifier classifier = new PerceptronClassifier(1);
+        classifier.train(dataset);
+        classifier.freeze();
+        System.out.println("trained on " + NUM_DATA + " data with " + classifier.numLabels() + " labels");
+
+        FeatureVector[] vectors = new FeatureVector[data.size()];
+        for (int i = 0; i < vectors.length; i++)
+            vectors[i] = classifier.featuresOf(data.get(i), new FeatureVector());
+
+        ScoreVector[] expected = newScoreVectors(vectors.length);
+        classifier.setScoringKernel(ScoringKernel.SCALAR);
+        scoreAll(classifier, vectors, expected);
+
+        ScoreVector[] scores = newScoreVectors(vectors.length);
+        for (ScoringKernel kernel : ScoringKernel.values()) {
+            classifier.setScoringKernel(kernel);
+            for (int round = 0; round < ROUNDS; round++)       //warm up
+                scoreAll(classifier, vectors, scores);
+
+            long start = System.nanoTime();
+            for (int round = 0; round < ROUNDS; round++)
+                scoreAll(classifier, vectors, scores);
+            double nanosPerDatum = (double) (System.nanoTime() - start) / ROUNDS / vectors.length;
+
+            double maxDifference = 0;
+            for (int i = 0; i < scores.length; i++)
+                for (int label = 0; label < scores[i].size(); label++)
+                    maxDifference = Math.max(maxDifference, Math.abs(scores[i].get(label) - expected[i].get(label)));
+
+            System.out.format("%s: %.1f ns per datum, max difference from SCALAR %.3g\n",
+                    kernel, nanosPerDatum, maxDifference);
+        }
+
+        int[] expectedLabels = new int[vectors.length];
+        for (int i = 0; i < vectors.length; i++)
+            expectedLabels[i] = expected[i].argMax();
+
+        int[] labels = new int[vectors.length];
+        classifier.setScoringKernel(ScoringKernel.defaultKernel());
+        for (boolean pruned : new boolean[]{false, true}) {
+            classifier.setPrunedArgMax(pruned);
+            for (int round = 0; round < ROUNDS; round++)       //warm up
+                for (int i = 0; i < vectors.length; i++)
+                    labels[i] = classifier.bestLabelOf(vectors[i], false);
+
+            long start = System.nanoTime();
+            for (int round = 0; round < ROUNDS; round++)
+                for (int i = 0; i < vectors.length; i++)
+                    labels[i] = classifier.bestLabelOf(vectors[i], false);
+            double nanosPerDatum = (double) (System.nanoTime() - start) / ROUNDS / vectors.length;
+
+            int disagreements = 0;
+            for (int i = 0; i < vectors.length; i++)
+                if (labels[i] != expectedLabels[i])
+                    disagreements++;
+            System.out.format("%s argmax: %.1f ns per datum, %d labels different from SCALAR\n",
+                    pruned ? "pruned" : "full", nanosPerDatum, disagreements);
+        }
+    }
+
+    private static ScoreVector[] newScoreVectors(int count) {
+        ScoreVector[] scores = new ScoreVector[count];
+        for (int i = 0; i < count; i++)
+            scores[i] = new ScoreVector();
+        return scores;
+    }
+
+    private static void scoreAll(PerceptronClassifier classifier, FeatureVector[] vectors, ScoreVector[] scores) {
+        for (int i = 0; i < vectors.length; i++)
+            classifier.scoresOf(vectors[i], false, scores[i]);
+    }
+}
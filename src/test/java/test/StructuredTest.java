@@ -29,7 +29,7 @@ public class StructuredTest {
 
     public static void main(String[] args) throws IOException, ClassNotFoundException {
 
-        trainingFrames = CorpusUtils.parseCorpus(TRAIN_CORPUS);
+        trainingFrames = CorpusUtils.loadCorpus(TRAIN_CORPUS, TRAIN_CORPUS_CACHE);
         System.out.println("Parsed train corpus");
 
         ArgumentClassifier argumentClassifier = LOAD_ARG_CLASSIFIER ?
@@ -54,7 +54,7 @@ public class StructuredTest {
             argumentClassifier.exportClassifier(ARG_CLASSIFIER_LOC);
         }
 
-        List<SemanticFrameSet> testFrameSets = CorpusUtils.parseCorpus(DEVEL_CORPUS);
+        List<SemanticFrameSet> testFrameSets = CorpusUtils.loadCorpus(DEVEL_CORPUS, DEVEL_CORPUS_CACHE);
         System.out.println("parsed devel corpus");
 
         /*classifier.trainArgumentFeatureGenerator(frameSets, testFrameSets);
@@ -5,4 +5,6 @@ public final class TestConstants {
     public static final int NUM_EPOCHS = 10;
     public static final String TRAIN_CORPUS = "src/test/resources/train.closed";
     public static final String DEVEL_CORPUS = "src/test/resources/devel.closed";
+    public static final String TRAIN_CORPUS_CACHE = "target/train.closed.bin";
+    public static final String DEVEL_CORPUS_CACHE = "target/devel.closed.bin";
 }
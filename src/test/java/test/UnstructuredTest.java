@@ -28,7 +28,7 @@ public class UnstructuredTest {
 
     public static void main(String[] args) throws IOException, ClassNotFoundException {
 
-        trainingFrames = CorpusUtils.parseCorpus(TRAIN_CORPUS);
+        trainingFrames = CorpusUtils.loadCorpus(TRAIN_CORPUS, TRAIN_CORPUS_CACHE);
         System.out.println("Parsed train corpus");
 
         ArgumentClassifier argumentClassifier = LOAD_ARG_CLASSIFIER ?
@@ -53,7 +53,7 @@ public class UnstructuredTest {
             argumentClassifier.exportClassifier(ARG_CLASSIFIER_LOC);
         }
 
-        List<SemanticFrameSet> testFrameSets = CorpusUtils.parseCorpus(DEVEL_CORPUS);
+        Iterable<SemanticFrameSet> testFrameSets = CorpusUtils.streamCorpus(DEVEL_CORPUS);
         System.out.println("parsed devel corpus");
 
         /*classifier.trainArgumentFeatureGenerator(frameSets, testFrameSets);